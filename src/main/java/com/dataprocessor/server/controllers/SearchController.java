@@ -7,8 +7,10 @@ import com.dataprocessor.server.utils.TempFileUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
 import java.util.Map;
@@ -16,6 +18,12 @@ import java.util.Map;
 @RestController
 @RequestMapping("/data")
 public class SearchController {
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    //Requests pick the shape of their results with this header, responses name the shape they have. Version 1, the
+    //default: one result per matching value node, '_id' is that node's id and every column holds one value. Version 2:
+    //one result per matching row, '_id' is the opaque row id and every column lists all the row's distinct values.
+    //Cursors and /searchStream need version 2.
+    private static final String API_VERSION_HEADER = "X-Search-Api-Version";
     private final SearchService service;
 
     @Autowired
@@ -24,39 +32,71 @@ public class SearchController {
     }
 
     @GetMapping(value = "/searchForField", produces = MediaType.APPLICATION_JSON_VALUE)
-    public final List<Map<String, List<String>>> searchForField(@RequestParam(value = "column")final String column,
-                                                                @RequestParam(value = "query") final String query,
-                                                                @RequestParam(value = "queryType") final QueryType queryType,
-                                                                @RequestParam(value = "uploads", required = false) final List<String> limitByUploads,
-                                                                @RequestParam(value = "joinOn", required = false) final List<String> joinByColumn,
-                                                                @RequestParam(value = "maxDepth", defaultValue = "2", required = false) final int maxJoinDepth,
-                                                                @RequestParam(value = "skip", defaultValue = "0", required = false) final int skip,
-                                                                @RequestParam(value = "limit", defaultValue = "10", required = false) final int limit){
-        return service.searchForField(
-                column,
-                query,
-                queryType,
-                ListUtils.ifNullEmpty(limitByUploads),
-                ListUtils.ifNullEmpty(joinByColumn),
-                maxJoinDepth,
-                skip, limit);
+    public final ResponseEntity<List<Map<String, List<String>>>> searchForField(@RequestParam(value = "column")final String column,
+                                                                                @RequestParam(value = "query") final String query,
+                                                                                @RequestParam(value = "queryType") final QueryType queryType,
+                                                                                @RequestParam(value = "uploads", required = false) final List<String> limitByUploads,
+                                                                                @RequestParam(value = "joinOn", required = false) final List<String> joinByColumn,
+                                                                                @RequestParam(value = "maxDepth", defaultValue = "2", required = false) final int maxJoinDepth,
+                                                                                @RequestParam(value = "skip", defaultValue = "0", required = false) final int skip,
+                                                                                @RequestParam(value = "limit", defaultValue = "10", required = false) final int limit,
+                                                                                @RequestHeader(value = API_VERSION_HEADER, defaultValue = "1", required = false) final int apiVersion){
+        return ResponseEntity.ok()
+                .header(API_VERSION_HEADER, String.valueOf(apiVersion))
+                .body(service.searchForField(
+                        column,
+                        query,
+                        queryType,
+                        ListUtils.ifNullEmpty(limitByUploads),
+                        ListUtils.ifNullEmpty(joinByColumn),
+                        maxJoinDepth,
+                        skip, limit, apiVersion));
     }
 
+    //Results stay the body. With a cursor (empty for the first page) the token for the next page comes in X-Next-Cursor
+    //while there may be more
     @GetMapping(value = "/search", produces = MediaType.APPLICATION_JSON_VALUE)
-    public final List<Map<String, List<String>>> search(@RequestParam(value = "columnAndQuery", required = false)final List<String> columnSearches,
-                                                        @RequestParam(value = "predicate", required = false, defaultValue = "AND") final LogicalPredicate predicate,
-                                                        @RequestParam(value = "uploads", required = false) final List<String> limitByUploads,
-                                                        @RequestParam(value = "joinOn", required = false)final List<String> joinByColumns,
-                                                        @RequestParam(value = "maxDepth", defaultValue = "2", required = false) final int maxJoinDepth,
-                                                        @RequestParam(value = "skip", defaultValue = "0", required = false) final int skip,
-                                                        @RequestParam(value = "limit", defaultValue = "10", required = false) final int limit){
-
-        return service.search(
+    public final ResponseEntity<List<Map<String, List<String>>>> search(@RequestParam(value = "columnAndQuery", required = false)final List<String> columnSearches,
+                                                                        @RequestParam(value = "predicate", required = false, defaultValue = "AND") final LogicalPredicate predicate,
+                                                                        @RequestParam(value = "uploads", required = false) final List<String> limitByUploads,
+                                                                        @RequestParam(value = "joinOn", required = false)final List<String> joinByColumns,
+                                                                        @RequestParam(value = "maxDepth", defaultValue = "2", required = false) final int maxJoinDepth,
+                                                                        @RequestParam(value = "cursor", required = false) final String cursor,
+                                                                        @RequestParam(value = "skip", defaultValue = "0", required = false) final int skip,
+                                                                        @RequestParam(value = "limit", defaultValue = "10", required = false) final int limit,
+                                                                        @RequestHeader(value = API_VERSION_HEADER, defaultValue = "1", required = false) final int apiVersion){
+
+        final SearchPage page = service.searchPage(
                 ListUtils.ifNullEmpty(columnSearches),
                 predicate,
                 ListUtils.ifNullEmpty(limitByUploads),
                 ListUtils.ifNullEmpty(joinByColumns),
-                maxJoinDepth, skip, limit);
+                maxJoinDepth, cursor, skip, limit, apiVersion);
+        final ResponseEntity.BodyBuilder response = ResponseEntity.ok().header(API_VERSION_HEADER, String.valueOf(apiVersion));
+        if (page.nextCursor != null){
+            response.header(NEXT_CURSOR_HEADER, page.nextCursor);
+        }
+        return response.body(page.rows);
+    }
+
+    //Same search as /search in version 2, written as newline delimited JSON while the rows are found
+    @GetMapping(value = "/searchStream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public final ResponseEntity<StreamingResponseBody> searchStream(@RequestParam(value = "columnAndQuery", required = false)final List<String> columnSearches,
+                                                                    @RequestParam(value = "predicate", required = false, defaultValue = "AND") final LogicalPredicate predicate,
+                                                                    @RequestParam(value = "uploads", required = false) final List<String> limitByUploads,
+                                                                    @RequestParam(value = "joinOn", required = false)final List<String> joinByColumns,
+                                                                    @RequestParam(value = "maxDepth", defaultValue = "2", required = false) final int maxJoinDepth,
+                                                                    @RequestParam(value = "cursor", required = false) final String cursor,
+                                                                    @RequestParam(value = "skip", defaultValue = "0", required = false) final int skip,
+                                                                    @RequestParam(value = "limit", defaultValue = "10000", required = false) final int limit){
+        return ResponseEntity.ok()
+                .header(API_VERSION_HEADER, String.valueOf(SearchService.API_V2))
+                .body(service.streamSearch(
+                        ListUtils.ifNullEmpty(columnSearches),
+                        predicate,
+                        ListUtils.ifNullEmpty(limitByUploads),
+                        ListUtils.ifNullEmpty(joinByColumns),
+                        maxJoinDepth, cursor, skip, limit));
     }
 
 
@@ -1,9 +1,16 @@
 package com.dataprocessor.server.controllers;
 
+import com.dataprocessor.server.entities.GenericResponse;
+import com.dataprocessor.server.entities.ResumeQueueEntry;
 import com.dataprocessor.server.entities.UploadDescriptor;
+import com.dataprocessor.server.services.ResumeScheduler;
 import com.dataprocessor.server.services.UploadsService;
 import com.dataprocessor.server.utils.TempFileUtil;
 import com.dataprocessor.server.utils.UploadMappingUtil;
+import jakarta.servlet.http.HttpServletRequest;
+import org.apache.commons.fileupload2.core.FileItemInput;
+import org.apache.commons.fileupload2.core.FileItemInputIterator;
+import org.apache.commons.fileupload2.jakarta.servlet6.JakartaServletDiskFileUpload;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,7 +18,12 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 @RestController
@@ -19,9 +31,12 @@ import java.util.List;
 public class UploadsController {
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final UploadsService service;
+    private final ResumeScheduler resumeScheduler;
     @Autowired
-    public UploadsController(final UploadsService service){
+    public UploadsController(final UploadsService service,
+                             final ResumeScheduler resumeScheduler){
         this.service = service;
+        this.resumeScheduler = resumeScheduler;
     }
 
     @PostMapping(value = "/upload", produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
@@ -32,11 +47,71 @@ public class UploadsController {
         return service.ingest(TempFileUtil.copyToTmpFile(file), uploadName, UploadMappingUtil.parse(mappings));
     }
 
+    //Offline bulk load: writes 'neo4j-admin database import' files and a manifest to '<destination>/' in the exports bucket.
+    @PostMapping(value = "/writeImportFiles", produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @ResponseStatus(HttpStatus.OK)
+    public final GenericResponse writeImportFiles(@RequestParam("file") final MultipartFile file,
+                                                  @RequestParam("name") final String uploadName,
+                                                  @RequestParam("mappings") final List<String> mappings,
+                                                  @RequestParam("destination") final String destination){
+        return service.writeImportFiles(TempFileUtil.copyToTmpFile(file), uploadName, UploadMappingUtil.parse(mappings), destination);
+    }
+
+    //Streams the multipart body straight into ingestion and MinIO. Form fields 'name' and 'mappings' must precede the 'file' part.
+    @PostMapping(value = "/streamUpload", produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @ResponseStatus(HttpStatus.OK)
+    public final UploadDescriptor streamUpload(final HttpServletRequest request){
+        String uploadName = null;
+        final List<String> mappings = new ArrayList<>(16);
+        try {
+            final FileItemInputIterator items = new JakartaServletDiskFileUpload().getItemIterator(request);
+            while (items.hasNext()){
+                final FileItemInput item = items.next();
+                if (item.isFormField()){
+                    final String value;
+                    try (final InputStream is = item.getInputStream()){
+                        value = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+                    }
+                    switch (item.getFieldName()){
+                        case "name" -> uploadName = value;
+                        case "mappings" -> mappings.addAll(Arrays.asList(value.split(",")));
+                        default -> logger.debug("Ignoring form field '{}'.", item.getFieldName());
+                    }
+                }else if ("file".equals(item.getFieldName())){
+                    if (uploadName == null || mappings.isEmpty()){
+                        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Fields 'name' and 'mappings' must precede the 'file' part.");
+                    }
+                    try (final InputStream is = item.getInputStream()){
+                        return service.ingest(is, request.getContentLengthLong(), uploadName, UploadMappingUtil.parse(mappings));
+                    }
+                }
+            }
+        }catch (final ResponseStatusException cause){
+            throw cause;
+        }catch (final Throwable cause){
+            logger.warn("Failed to read multipart upload '{}'.", uploadName, cause);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to read multipart upload.", cause);
+        }
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Multipart request has no 'file' part.");
+    }
+
     @GetMapping(value = "/listUnfinishedUploadDescriptors", produces = MediaType.APPLICATION_JSON_VALUE)
     public final List<UploadDescriptor> listUnfinishedUploads(){
         return service.listUnfinishedUploads();
     }
 
+    //Uploads being resumed after a restart, running ones first, then the queued ones in the order they will start.
+    @GetMapping(value = "/resumeQueue", produces = MediaType.APPLICATION_JSON_VALUE)
+    public final List<ResumeQueueEntry> resumeQueue(){
+        return resumeScheduler.getQueue();
+    }
+
+    //Rows that could not be committed are kept in the dead letter store. Commits them again and drops those that succeed.
+    @PostMapping(value = "/replayDeadLetters", produces = MediaType.APPLICATION_JSON_VALUE)
+    public final GenericResponse replayDeadLetters(@RequestParam(value = "name") final String name){
+        return service.replayDeadLetters(name);
+    }
+
     @GetMapping(value = "/listFinishedUploadDescriptors", produces = MediaType.APPLICATION_JSON_VALUE)
     public final List<UploadDescriptor> listFinishedUploads(@RequestParam(value = "skip", defaultValue = "0") final int skip,
                                                             @RequestParam(value = "limit", defaultValue = "100") final int limit){
@@ -0,0 +1,52 @@
+package com.dataprocessor.server.entities;
+
+import java.util.List;
+import java.util.Objects;
+
+//A transformed row that could not be committed on its own. 'columns' and 'values' are parallel lists of the row's cells.
+public final class DeadLetter {
+    public String upload;
+    public long row;
+    public List<String> columns;
+    public List<String> values;
+    public String error;
+    public long timeStamp;
+
+    public DeadLetter(){}
+    public DeadLetter(final String upload,
+                      final long row,
+                      final List<String> columns,
+                      final List<String> values,
+                      final String error,
+                      final long timeStamp){
+        this.upload = upload;
+        this.row = row;
+        this.columns = columns;
+        this.values = values;
+        this.error = error;
+        this.timeStamp = timeStamp;
+    }
+
+    @Override
+    public final boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final DeadLetter that = (DeadLetter) o;
+        return row == that.row && timeStamp == that.timeStamp && Objects.equals(upload, that.upload) && Objects.equals(columns, that.columns) && Objects.equals(values, that.values) && Objects.equals(error, that.error);
+    }
+    @Override
+    public final int hashCode() {
+        return Objects.hash(upload, row, columns, values, error, timeStamp);
+    }
+    @Override
+    public final String toString() {
+        return "DeadLetter{" +
+                "upload='" + upload + '\'' +
+                ", row=" + row +
+                ", columns=" + columns +
+                ", values=" + values +
+                ", error='" + error + '\'' +
+                ", timeStamp=" + timeStamp +
+                '}';
+    }
+}
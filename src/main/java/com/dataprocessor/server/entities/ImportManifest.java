@@ -0,0 +1,53 @@
+package com.dataprocessor.server.entities;
+
+import java.util.List;
+import java.util.Objects;
+
+//Describes a set of 'neo4j-admin database import' files: the upload they hold, the importer arguments and the
+//Cypher statements (indexes, reversed column markers) to run once the imported database is online.
+public final class ImportManifest {
+    public UploadDescriptor upload;
+    public List<String> files;
+    public long rows;
+    public long values;
+    public List<String> importArguments;
+    public List<String> statements;
+
+    public ImportManifest(){}
+    public ImportManifest(final UploadDescriptor upload,
+                          final List<String> files,
+                          final long rows,
+                          final long values,
+                          final List<String> importArguments,
+                          final List<String> statements){
+        this.upload = upload;
+        this.files = files;
+        this.rows = rows;
+        this.values = values;
+        this.importArguments = importArguments;
+        this.statements = statements;
+    }
+
+    @Override
+    public final boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final ImportManifest that = (ImportManifest) o;
+        return rows == that.rows && values == that.values && Objects.equals(upload, that.upload) && Objects.equals(files, that.files) && Objects.equals(importArguments, that.importArguments) && Objects.equals(statements, that.statements);
+    }
+    @Override
+    public final int hashCode() {
+        return Objects.hash(upload, files, rows, values, importArguments, statements);
+    }
+    @Override
+    public final String toString() {
+        return "ImportManifest{" +
+                "upload=" + upload +
+                ", files=" + files +
+                ", rows=" + rows +
+                ", values=" + values +
+                ", importArguments=" + importArguments +
+                ", statements=" + statements +
+                '}';
+    }
+}
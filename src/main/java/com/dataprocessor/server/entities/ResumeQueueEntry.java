@@ -0,0 +1,50 @@
+package com.dataprocessor.server.entities;
+
+import java.util.Objects;
+
+public final class ResumeQueueEntry {
+    public String name;
+    public State state;
+    public int position;
+    public long remaining;
+    public long timeStamp;
+
+    public ResumeQueueEntry(){}
+    public ResumeQueueEntry(final String name,
+                            final State state,
+                            final int position,
+                            final long remaining,
+                            final long timeStamp){
+        this.name = name;
+        this.state = state;
+        this.position = position;
+        this.remaining = remaining;
+        this.timeStamp = timeStamp;
+    }
+
+    @Override
+    public final boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final ResumeQueueEntry that = (ResumeQueueEntry) o;
+        return position == that.position && remaining == that.remaining && timeStamp == that.timeStamp && Objects.equals(name, that.name) && state == that.state;
+    }
+    @Override
+    public final int hashCode() {
+        return Objects.hash(name, state, position, remaining, timeStamp);
+    }
+    @Override
+    public final String toString() {
+        return "ResumeQueueEntry{" +
+                "name='" + name + '\'' +
+                ", state=" + state +
+                ", position=" + position +
+                ", remaining=" + remaining +
+                ", timeStamp=" + timeStamp +
+                '}';
+    }
+
+    public static enum State{
+        RUNNING, QUEUED
+    }
+}
@@ -0,0 +1,39 @@
+package com.dataprocessor.server.entities;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+public final class SearchPage {
+    public List<Map<String, List<String>>> rows;
+    //Null once the last page was returned
+    public String nextCursor;
+
+    public SearchPage(){}
+    public SearchPage(final List<Map<String, List<String>>> rows,
+                      final String nextCursor){
+        this.rows = rows;
+        this.nextCursor = nextCursor;
+    }
+
+    @Override
+    public final boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final SearchPage that = (SearchPage) o;
+        return Objects.equals(rows, that.rows) && Objects.equals(nextCursor, that.nextCursor);
+    }
+
+    @Override
+    public final int hashCode() {
+        return Objects.hash(rows, nextCursor);
+    }
+
+    @Override
+    public final String toString() {
+        return "SearchPage{" +
+                "rows=" + rows +
+                ", nextCursor='" + nextCursor + '\'' +
+                '}';
+    }
+}
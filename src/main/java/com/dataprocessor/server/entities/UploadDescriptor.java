@@ -10,19 +10,28 @@ public final class UploadDescriptor {
     public long timeStamp;
     public List<UploadMapping> mappings;
     public Status status;
+    public int batchSize;
+    public long checkpointOffset;
+    public boolean sharedValues;
     public UploadDescriptor(){}
     public UploadDescriptor(final String name,
                             final long processed,
                             final long outOf,
                             final long timeStamp,
                             final List<UploadMapping> mappings,
-                            final Status status){
+                            final Status status,
+                            final int batchSize,
+                            final long checkpointOffset,
+                            final boolean sharedValues){
         this.name = name;
         this.processed = processed;
         this.outOf = outOf;
         this.timeStamp = timeStamp;
         this.mappings = mappings;
         this.status = status;
+        this.batchSize = batchSize;
+        this.checkpointOffset = checkpointOffset;
+        this.sharedValues = sharedValues;
     }
 
     @Override
@@ -30,12 +39,12 @@ public final class UploadDescriptor {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         UploadDescriptor that = (UploadDescriptor) o;
-        return processed == that.processed && outOf == that.outOf && timeStamp == that.timeStamp && Objects.equals(name, that.name) && Objects.equals(mappings, that.mappings) && status == that.status;
+        return processed == that.processed && batchSize == that.batchSize && checkpointOffset == that.checkpointOffset && sharedValues == that.sharedValues && outOf == that.outOf && timeStamp == that.timeStamp && Objects.equals(name, that.name) && Objects.equals(mappings, that.mappings) && status == that.status;
     }
 
     @Override
     public final int hashCode() {
-        return Objects.hash(name, processed, outOf, timeStamp, mappings, status);
+        return Objects.hash(name, processed, outOf, timeStamp, mappings, status, batchSize, checkpointOffset, sharedValues);
     }
 
     @Override
@@ -47,6 +56,9 @@ public final class UploadDescriptor {
                 ", timeStamp=" + timeStamp +
                 ", mappings=" + mappings +
                 ", status=" + status +
+                ", batchSize=" + batchSize +
+                ", checkpointOffset=" + checkpointOffset +
+                ", sharedValues=" + sharedValues +
                 '}';
     }
 
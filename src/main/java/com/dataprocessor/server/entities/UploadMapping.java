@@ -10,14 +10,23 @@ public final class UploadMapping {
     public List<String> sourceColumns;
     public String destinationColumn;
     public List<StringTransformer.Transformation> transformations;
+    public String validator;
+    public boolean reversed;
+    public boolean textIndex;
 
     public UploadMapping(){}
     public UploadMapping(final List<String> sourceColumns,
                          final String destinationColumn,
-                         final List<StringTransformer.Transformation> transformations){
+                         final List<StringTransformer.Transformation> transformations,
+                         final String validator,
+                         final boolean reversed,
+                         final boolean textIndex){
         this.sourceColumns = sourceColumns;
         this.destinationColumn = destinationColumn;
         this.transformations = transformations;
+        this.validator = validator;
+        this.reversed = reversed;
+        this.textIndex = textIndex;
     }
 
     @Override
@@ -25,12 +34,12 @@ public final class UploadMapping {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         final UploadMapping that = (UploadMapping) o;
-        return Objects.equals(sourceColumns, that.sourceColumns) && Objects.equals(destinationColumn, that.destinationColumn) && Objects.equals(transformations, that.transformations);
+        return Objects.equals(sourceColumns, that.sourceColumns) && Objects.equals(destinationColumn, that.destinationColumn) && Objects.equals(transformations, that.transformations) && Objects.equals(validator, that.validator) && reversed == that.reversed && textIndex == that.textIndex;
     }
 
     @Override
     public final int hashCode() {
-        return Objects.hash(sourceColumns, destinationColumn, transformations);
+        return Objects.hash(sourceColumns, destinationColumn, transformations, validator, reversed, textIndex);
     }
 
     @Override
@@ -39,6 +48,9 @@ public final class UploadMapping {
                 "sourceColumns=" + sourceColumns +
                 ", destinationColumn='" + destinationColumn + '\'' +
                 ", transformations=" + transformations +
+                ", validator='" + validator + '\'' +
+                ", reversed=" + reversed +
+                ", textIndex=" + textIndex +
                 '}';
     }
 
@@ -1,5 +1,6 @@
 package com.dataprocessor.server.repositories;
 
+import jakarta.annotation.PostConstruct;
 import org.neo4j.driver.SessionConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,16 +9,43 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public final class ColumnsRepository {
+    //Marks are re-read this often, so writers of every instance pick up a column marked elsewhere
+    private static final long REVERSED_COLUMNS_TTL_MILLIS = 5_000;
+    //Writers read the marks in their own transaction, only one that began before the mark was committed misses it, and
+    //may still commit this long after
+    private static final long MARK_GRACE_MILLIS = 30_000;
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final Neo4jManager neo4jManager;
+    //Columns storing a reversed copy of each value, mapped to whether all of their existing nodes have it
+    private final Map<String, Boolean> reversedColumns = new ConcurrentHashMap<>(16);
+    private final Set<String> backfills = ConcurrentHashMap.newKeySet();
+    private volatile long reversedColumnsLoadedAt;
 
     public ColumnsRepository(final Neo4jManager neo4jManager){
         this.neo4jManager = neo4jManager;
     }
 
+    //Backfills interrupted by a restart are picked up again, otherwise their columns would never complete.
+    @PostConstruct
+    private final void resumeBackfills(){
+        try {
+            getReversedColumns().forEach((column, complete) -> {
+                if (!complete && backfills.add(column)){
+                    logger.info("Resuming backfill of reversed values of column '{}'.", column);
+                    backfill(column);
+                }
+            });
+        }catch (final Throwable cause){
+            logger.error("Failed to resume backfills of reversed values.", cause);
+        }
+    }
+
     public final List<String> listAllColumn(){
         try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
             return session.run("call db.labels();").list().stream()
@@ -30,4 +58,77 @@ public final class ColumnsRepository {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to list columns.", cause);
         }
     }
+
+    //Every value of the column has a reversed copy, so suffix searches may use it.
+    public final boolean isReversedComplete(final String column){
+        return Boolean.TRUE.equals(getReversedColumns().get(column));
+    }
+
+    //Marks the column first, so writers add reversed copies from now on, then backfills the values written before.
+    //Transactions in flight when the mark committed may still add values without a copy, so the column is completed
+    //by a final pass that found none left, in the same transaction. A pass that still found some waits and retries.
+    public final void enableReversedValues(final String column){
+        if (isReversedComplete(column) || !backfills.add(column))
+            return;
+        final String markQuery = "MERGE (c:ReversedColumn {name:$name}) ON CREATE SET c.complete=false;";
+        try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
+            session.executeWrite(tx-> tx.run(markQuery, Map.of("name", column)).consume());
+            reversedColumns.putIfAbsent(column, false);
+        }catch (final Throwable cause){
+            backfills.remove(column);
+            logger.error("Failed to mark reversed column. Query: {}. Cause:", markQuery, cause);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to mark reversed column.", cause);
+        }
+        backfill(column);
+    }
+
+    private final void backfill(final String column){
+        Thread.startVirtualThread(()->{
+            final String backfillQuery = "MATCH (n:" + column + ") WHERE n.reversed IS NULL CALL { WITH n SET n.reversed=reverse(n.value) } IN TRANSACTIONS OF 10000 ROWS;";
+            final String finalPassQuery = "MATCH (n:" + column + ") WHERE n.reversed IS NULL SET n.reversed=reverse(n.value) RETURN count(n) AS updated;";
+            final String completeQuery = "MATCH (c:ReversedColumn {name:$name}) SET c.complete=true;";
+            try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
+                //CALL IN TRANSACTIONS only runs in an auto-commit transaction
+                session.run(backfillQuery).consume();
+                for (;;){
+                    Thread.sleep(MARK_GRACE_MILLIS);
+                    final boolean complete = session.executeWrite(tx-> {
+                        if (tx.run(finalPassQuery).single().get("updated").asLong() > 0)
+                            return false;
+                        tx.run(completeQuery, Map.of("name", column)).consume();
+                        return true;
+                    });
+                    if (complete)
+                        break;
+                    logger.info("Values without a reversed copy were added to column '{}' during its backfill, checking again.", column);
+                }
+                reversedColumns.put(column, true);
+                logger.info("Reversed values of column '{}' are complete.", column);
+            }catch (final Throwable cause){
+                logger.error("Failed to backfill reversed values. Query: {}. Cause:", backfillQuery, cause);
+            }finally {
+                backfills.remove(column);
+            }
+        });
+    }
+
+    private final Map<String, Boolean> getReversedColumns(){
+        if (System.currentTimeMillis() - reversedColumnsLoadedAt < REVERSED_COLUMNS_TTL_MILLIS)
+            return reversedColumns;
+        synchronized (reversedColumns){
+            if (System.currentTimeMillis() - reversedColumnsLoadedAt < REVERSED_COLUMNS_TTL_MILLIS)
+                return reversedColumns;
+            final String query = "MATCH (c:ReversedColumn) RETURN c.name AS name, c.complete AS complete;";
+            try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
+                //Marks are never removed and only ever complete, so the stored state wins
+                session.run(query).list().forEach(r -> reversedColumns.put(r.get("name").asString(), !r.get("complete").isNull() && r.get("complete").asBoolean()));
+                reversedColumnsLoadedAt = System.currentTimeMillis();
+            }catch (final Throwable cause){
+                logger.error("Failed to list reversed columns.", cause);
+                if (reversedColumnsLoadedAt == 0)
+                    throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to list reversed columns.", cause);
+            }
+        }
+        return reversedColumns;
+    }
 }
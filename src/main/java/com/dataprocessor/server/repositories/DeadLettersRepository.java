@@ -0,0 +1,105 @@
+package com.dataprocessor.server.repositories;
+
+import com.dataprocessor.server.entities.DeadLetter;
+import com.dataprocessor.server.utils.json.JSON;
+import io.minio.*;
+import io.minio.errors.*;
+import io.minio.messages.Item;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+//One object per rejected row, named '<upload>/<row>.json', so a row rejected again on resume overwrites its letter.
+@Service
+public final class DeadLettersRepository {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final MinioClient minioClient;
+    private final String bucket;
+
+    @Autowired
+    public DeadLettersRepository(@Value("${minio.endpoint}") final String uri,
+                                 @Value("${minio.user}") final String userName,
+                                 @Value("${minio.password}") final String password,
+                                 @Value("${minio.buckets.deadLetters:deadletters}") final String bucket) throws ServerException, InsufficientDataException, ErrorResponseException, IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidResponseException, XmlParserException, InternalException {
+        this.bucket = bucket;
+        this.minioClient = MinioClient.builder()
+                .endpoint(uri)
+                .credentials(userName, password)
+                .build();
+        if (!this.minioClient.bucketExists(BucketExistsArgs.builder().bucket(this.bucket).build())){
+            this.minioClient.makeBucket(MakeBucketArgs.builder().bucket(this.bucket).build());
+        }
+    }
+
+    public final void save(final DeadLetter letter){
+        final byte[] data = JSON.toJson(letter).getBytes(StandardCharsets.UTF_8);
+        final String name = objectName(letter.upload, letter.row);
+        try {
+            minioClient.putObject(PutObjectArgs
+                    .builder()
+                    .bucket(bucket)
+                    .object(name)
+                    .stream(new ByteArrayInputStream(data), data.length, -1)
+                    .build());
+        }catch (final Throwable cause){
+            logger.error("Failed to save dead letter '{}'", name, cause);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to save dead letter '" + name + "'.", cause);
+        }
+    }
+
+    public final List<String> list(final String upload){
+        final List<String> res = new ArrayList<>(16);
+        try {
+            for(final Result<Item> item : minioClient.listObjects(ListObjectsArgs.builder()
+                    .bucket(bucket)
+                    .prefix(upload + "/")
+                    .recursive(true)
+                    .build())){
+                res.add(item.get().objectName());
+            }
+            return res;
+        }catch (final Throwable cause){
+            logger.warn("Failed to list dead letters of '{}'", upload, cause);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to list dead letters of '" + upload + "'.", cause);
+        }
+    }
+
+    public final DeadLetter get(final String name){
+        try (final InputStream is = minioClient.getObject(GetObjectArgs.builder()
+                .bucket(bucket)
+                .object(name)
+                .build())) {
+            return JSON.fromJson(new String(is.readAllBytes(), StandardCharsets.UTF_8), DeadLetter.class);
+        }catch (final Throwable cause){
+            logger.warn("Failed to read dead letter '{}'", name, cause);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to read dead letter '" + name + "'.", cause);
+        }
+    }
+
+    public final void delete(final String upload, final long row){
+        final String name = objectName(upload, row);
+        try {
+            minioClient.removeObject(RemoveObjectArgs.builder()
+                    .bucket(bucket)
+                    .object(name)
+                    .build());
+        }catch (final Throwable cause){
+            logger.warn("Failed to delete dead letter '{}'", name, cause);
+        }
+    }
+
+    private static final String objectName(final String upload, final long row){
+        return upload + "/" + row + ".json";
+    }
+}
@@ -2,6 +2,7 @@ package com.dataprocessor.server.repositories;
 
 import jakarta.annotation.PostConstruct;
 import org.neo4j.driver.SessionConfig;
+import org.neo4j.driver.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,10 +10,33 @@ import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 @Service
 public final class IndexManager {
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final Neo4jManager neo4jManager;
+    private static final String ONLINE = "ONLINE";
+    //Searches re-read the catalog at most this often while an index they could use is not online
+    private static final long REFRESH_INTERVAL_MILLIS = 10_000;
+    //Row ids are derived from the source row, the constraint keeps a batch committed twice from duplicating its rows.
+    //Its index also serves keyset pages of searches, which walk rows in 'rowId' order.
+    public static final String ROW_ID_CONSTRAINT = "URowId";
+    //Index name to state, loaded from SHOW INDEXES and kept current by this process, so repeated ensures skip the round trip
+    private final Map<String, String> catalog = new ConcurrentHashMap<>(64);
+    //'TYPE:label:property' to the name of the index serving it, whoever created it, e.g. the index backing a constraint
+    private final Map<String, String> schema = new ConcurrentHashMap<>(64);
+    //Names of the indexes that back a constraint
+    private final Set<String> constrained = ConcurrentHashMap.newKeySet();
+    //Indexes this process failed to create, not retried until restart
+    private final Set<String> failed = ConcurrentHashMap.newKeySet();
+    //'column:KIND' of the value predicates this process saw searches run without an index serving them
+    private final Set<String> searched = ConcurrentHashMap.newKeySet();
+    private volatile long refreshedAt;
     @Autowired
     public IndexManager(final Neo4jManager neo4jManager){
         this.neo4jManager = neo4jManager;
@@ -20,13 +44,78 @@ public final class IndexManager {
 
     @PostConstruct
     private final void ensureIndexes(){
+        refreshCatalog();
         ensureIndex("iUploadsNameIndex", "Upload", "name");
         ensureIndex("iUploadsTimeIndex", "Upload", "timeStamp");
         ensureIndex("iMatchIndex", "Match", "name");
         ensureIndex("iMatchTimeIndex", "Match", "timeStamp");
+        if (!ensureUniqueConstraint(ROW_ID_CONSTRAINT, "Row", "rowId")){
+            logger.error("Rows are not constrained by their id, committing a batch again may duplicate its rows.");
+            ensureIndex("iRowIdIndex", "Row", "rowId");
+        }
+    }
+
+    public final void refreshCatalog(){
+        final String query = "SHOW INDEXES YIELD name, state, type, entityType, labelsOrTypes, properties, owningConstraint RETURN name, state, type, entityType, labelsOrTypes, properties, owningConstraint;";
+        refreshedAt = System.currentTimeMillis();
+        try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
+            final Map<String, String> current = new ConcurrentHashMap<>(64);
+            final Map<String, String> currentSchema = new ConcurrentHashMap<>(64);
+            final Set<String> currentConstrained = ConcurrentHashMap.newKeySet();
+            session.run(query).list().forEach(r -> {
+                final String name = r.get("name").asString();
+                current.put(name, r.get("state").asString());
+                if (!r.get("owningConstraint").isNull())
+                    currentConstrained.add(name);
+                final List<String> labels = r.get("labelsOrTypes").isNull() ? List.of() : r.get("labelsOrTypes").asList(Value::asString);
+                final List<String> properties = r.get("properties").isNull() ? List.of() : r.get("properties").asList(Value::asString);
+                if ("NODE".equals(r.get("entityType").asString()) && labels.size() == 1 && properties.size() == 1){
+                    //An online index wins over another one on the same schema that is not
+                    currentSchema.merge(schemaKey(r.get("type").asString(), labels.getFirst(), properties.getFirst()), name,
+                            (a, b) -> ONLINE.equals(current.get(a)) ? a : b);
+                }
+            });
+            catalog.keySet().retainAll(current.keySet());
+            catalog.putAll(current);
+            schema.keySet().retainAll(currentSchema.keySet());
+            schema.putAll(currentSchema);
+            constrained.retainAll(currentConstrained);
+            constrained.addAll(currentConstrained);
+        }catch (final Throwable cause){
+            logger.warn("Failed to refresh index catalog. Query: {}. Cause:", query, cause);
+        }
+    }
+
+    public final boolean exists(final String indexName){
+        return catalog.containsKey(indexName);
+    }
+
+    public final boolean isOnline(final String indexName){
+        return ONLINE.equals(catalog.get(indexName));
+    }
+
+    //Waits until every index is online, so searches do not fall back to label scans. Returns false on timeout or failure.
+    public final boolean awaitOnline(final Collection<String> indexNames, final long timeoutSeconds){
+        final long deadline = System.currentTimeMillis() + timeoutSeconds * 1000;
+        for(final String indexName : indexNames){
+            if (isOnline(indexName))
+                continue;
+            final long remaining = Math.max(1, (deadline - System.currentTimeMillis()) / 1000);
+            try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
+                session.run("CALL db.awaitIndex($name, $timeout);", Map.of("name", indexName, "timeout", remaining)).consume();
+                catalog.put(indexName, ONLINE);
+            }catch (final Throwable cause){
+                logger.warn("Index '{}' did not come online within {} seconds.", indexName, timeoutSeconds, cause);
+                refreshCatalog();
+                return false;
+            }
+        }
+        return true;
     }
 
     public final void ensureIndex(final String indexName, final String nodeType, final String field){
+        if (exists(indexName) || schema.containsKey(schemaKey("RANGE", nodeType, field)))
+            return;
         final String query = "CREATE INDEX " + indexName + " IF NOT EXISTS FOR (n:" + nodeType + ") ON (n." + field + ")";
         logger.info("Ensuring index: '{}'.", query);
         try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
@@ -35,5 +124,157 @@ public final class IndexManager {
             logger.error("Index validation failed. Query: {}. Cause:", query, cause);
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to ensure index", cause);
         }
+        refreshCatalog();
+    }
+
+    //Ensures the index of a destination column that serves the given kind of value predicate, unless one already
+    //serves it, e.g. the index of a shared value constraint. Returns the name of that index, or null when it can not be
+    //created. Only called while ingesting, searches must never create indexes.
+    public final String ensureValueIndex(final String nodeType, final IndexKind kind){
+        final String effective = effectiveIndex(nodeType, kind);
+        if (effective != null)
+            return effective;
+        final String indexName = kind.indexName(nodeType);
+        if (failed.contains(indexName))
+            return null;
+        final String query = "CREATE " + kind.type + " INDEX " + indexName + " IF NOT EXISTS FOR (n:" + nodeType + ") ON (n." + kind.property + ")";
+        logger.info("Ensuring index: '{}'.", query);
+        try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
+            session.executeWrite(tx-> tx.run(query).consume());
+        }catch (final Throwable cause){
+            logger.warn("Index validation failed. Query: {}. Cause:", query, cause);
+            failed.add(indexName);
+            return null;
+        }
+        //IF NOT EXISTS keeps an equivalent index that was created meanwhile, the catalog tells which one serves the column
+        refreshCatalog();
+        final String created = effectiveIndex(nodeType, kind);
+        if (created == null){
+            failed.add(indexName);
+        }
+        return created;
+    }
+
+    //Name of the index, of any origin, that serves the kind of value predicate on the column, or null.
+    public final String effectiveIndex(final String nodeType, final IndexKind kind){
+        return schema.get(schemaKey(kind.type, nodeType, kind.property));
+    }
+
+    //Records that a search ran the kind of value predicate on the column without an index serving it. Persisted, so
+    //the next ingestion into the column, on any instance, creates that index. RANGE indexes are always created.
+    public final void recordSearch(final String nodeType, final IndexKind kind){
+        if (kind == IndexKind.RANGE || !searched.add(nodeType + ":" + kind))
+            return;
+        final String query = "MERGE (:SearchedColumn {name:$name, kind:$kind});";
+        try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
+            session.executeWrite(tx-> tx.run(query, Map.of("name", nodeType, "kind", kind.name())).consume());
+        }catch (final Throwable cause){
+            searched.remove(nodeType + ":" + kind);
+            logger.warn("Failed to record searched column. Query: {}. Cause:", query, cause);
+        }
+    }
+
+    //Whether a search, on any instance, ran the kind of value predicate on the column, see recordSearch.
+    public final boolean isSearched(final String nodeType, final IndexKind kind){
+        if (searched.contains(nodeType + ":" + kind))
+            return true;
+        final String query = "MATCH (c:SearchedColumn {name:$name, kind:$kind}) RETURN count(c) > 0 AS searched;";
+        try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
+            if (!session.run(query, Map.of("name", nodeType, "kind", kind.name())).single().get("searched").asBoolean())
+                return false;
+        }catch (final Throwable cause){
+            logger.warn("Failed to read searched column. Query: {}. Cause:", query, cause);
+            return false;
+        }
+        searched.add(nodeType + ":" + kind);
+        return true;
+    }
+
+    //Whether searches can hint the index serving the kind of value predicate on the column. Never creates it, and only
+    //re-reads the catalog, throttled, while that index is missing or not online, e.g. when another instance made it.
+    public final boolean isValueIndexOnline(final String nodeType, final IndexKind kind){
+        String indexName = effectiveIndex(nodeType, kind);
+        if (indexName != null && isOnline(indexName))
+            return true;
+        if (System.currentTimeMillis() - refreshedAt < REFRESH_INTERVAL_MILLIS)
+            return false;
+        refreshCatalog();
+        indexName = effectiveIndex(nodeType, kind);
+        return indexName != null && isOnline(indexName);
+    }
+
+    //Returns false when the constraint can not be created, i.e. the label already holds duplicate values. A plain RANGE
+    //index on the same property would collide with the index backing the constraint, so it is replaced, and restored
+    //when the constraint fails.
+    public final boolean ensureUniqueConstraint(final String constraintName, final String nodeType, final String field){
+        if (exists(constraintName) || isUnique(nodeType, field))
+            return true;
+        final String plainIndex = schema.get(schemaKey("RANGE", nodeType, field));
+        if (plainIndex != null)
+            dropIndex(plainIndex);
+        final String query = "CREATE CONSTRAINT " + constraintName + " IF NOT EXISTS FOR (n:" + nodeType + ") REQUIRE n." + field + " IS UNIQUE";
+        logger.info("Ensuring constraint: '{}'.", query);
+        try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
+            session.executeWrite(tx-> tx.run(query).consume());
+        }catch (final Throwable cause){
+            logger.warn("Constraint validation failed. Query: {}. Cause:", query, cause);
+            refreshCatalog();
+            if (plainIndex != null){
+                try{
+                    ensureIndex(plainIndex, nodeType, field);
+                }catch (final ResponseStatusException ignored){}
+            }
+            return false;
+        }
+        //The backing index is named after the constraint
+        refreshCatalog();
+        return true;
+    }
+
+    //Whether a uniqueness constraint, of any origin, covers the property of the label.
+    public final boolean isUnique(final String nodeType, final String field){
+        final String indexName = schema.get(schemaKey("RANGE", nodeType, field));
+        return indexName != null && constrained.contains(indexName);
+    }
+
+    private final void dropIndex(final String indexName){
+        final String query = "DROP INDEX " + indexName + " IF EXISTS";
+        logger.info("Dropping index: '{}'.", query);
+        try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
+            session.executeWrite(tx-> tx.run(query).consume());
+        }catch (final Throwable cause){
+            logger.warn("Failed to drop index. Query: {}. Cause:", query, cause);
+        }
+        refreshCatalog();
+    }
+
+    private static final String schemaKey(final String type, final String nodeType, final String property){
+        return type + ":" + nodeType + ":" + property;
+    }
+
+    //RANGE serves equality and prefix predicates, TEXT (trigram) serves CONTAINS and ENDS WITH, REVERSED serves
+    //ENDS WITH rewritten as a prefix predicate on the reversed value.
+    public static enum IndexKind{
+        RANGE("RANGE", "value"), TEXT("TEXT", "value"), REVERSED("RANGE", "reversed");
+
+        public final String type;
+        public final String property;
+
+        private IndexKind(final String type, final String property){
+            this.type = type;
+            this.property = property;
+        }
+
+        public final String indexName(final String nodeType){
+            return switch (this){
+                case RANGE -> "I" + nodeType + "Index";
+                case TEXT -> "T" + nodeType + "TextIndex";
+                case REVERSED -> "R" + nodeType + "ReversedIndex";
+            };
+        }
+
+        public final String hint(final String variable, final String nodeType){
+            return "USING " + type + " INDEX " + variable + ":" + nodeType + "(" + property + ")";
+        }
     }
 }
@@ -0,0 +1,114 @@
+package com.dataprocessor.server.repositories;
+
+import com.dataprocessor.server.entities.LogicalPredicate;
+import com.dataprocessor.server.entities.UploadDescriptor;
+import com.dataprocessor.server.utils.tuples.Tuple2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+//Rows as (Upload)-[:OWNS]->(Row)-[:OWNS]->(value) subgraphs. Searches run as a single Cypher traversal.
+@Service
+@ConditionalOnProperty(name = "storage.engine", havingValue = "neo4j", matchIfMissing = true)
+public final class Neo4jStorageEngine implements StorageEngine {
+    private final UploadRepository uploadRepository;
+    private final SearchRepository searchRepository;
+    private final ColumnsRepository columnsRepository;
+
+    @Autowired
+    public Neo4jStorageEngine(final UploadRepository uploadRepository,
+                              final SearchRepository searchRepository,
+                              final ColumnsRepository columnsRepository){
+        this.uploadRepository = uploadRepository;
+        this.searchRepository = searchRepository;
+        this.columnsRepository = columnsRepository;
+    }
+
+    @Override
+    public final void writeRows(final UploadDescriptor upload,
+                                final long processed,
+                                final long checkpointOffset,
+                                final long totalRows,
+                                final List<Long> rows,
+                                final List<List<Tuple2<String, String>>> records){
+        if (records.isEmpty()){
+            if (processed >= 0){
+                uploadRepository.updateProcessed(upload, processed, checkpointOffset, totalRows);
+            }
+            return;
+        }
+        //The checkpoint is advanced in the same transaction
+        uploadRepository.addRecords(upload, processed, checkpointOffset, totalRows, records.size(), rows, records);
+    }
+
+    @Override
+    public final void deleteRows(final UploadDescriptor upload){
+        uploadRepository.deleteRows(upload);
+    }
+
+    @Override
+    public final List<String> findRows(final List<SearchRepository.SearchQuery> queries,
+                                       final LogicalPredicate predicate,
+                                       final List<String> limitByUploads,
+                                       final String after,
+                                       final int skip,
+                                       final int limit){
+        return searchRepository.findRowIds(queries, predicate, limitByUploads, after, skip, limit);
+    }
+
+    @Override
+    public final List<Map<String, List<String>>> fetchRows(final List<String> rowIds){
+        return searchRepository.fetchRows(rowIds);
+    }
+
+    @Override
+    public final List<String> expandJoin(final String column, final List<String> values, final int maxRows){
+        return searchRepository.expandJoin(column, values, maxRows);
+    }
+
+    @Override
+    public final List<String> listColumns(){
+        return columnsRepository.listAllColumn();
+    }
+
+    @Override
+    public final List<Map<String, List<String>>> search(final List<String> columnSearches,
+                                                        final LogicalPredicate predicate,
+                                                        final List<String> limitByUploads,
+                                                        final List<String> joinByColumns,
+                                                        final int maxJoinDepth,
+                                                        final String after,
+                                                        final int skip,
+                                                        final int limit){
+        return searchRepository.search(columnSearches, predicate, limitByUploads, joinByColumns, maxJoinDepth, after, skip, limit);
+    }
+
+    @Override
+    public final List<Map<String, List<String>>> searchValues(final List<String> columnSearches,
+                                                              final LogicalPredicate predicate,
+                                                              final List<String> limitByUploads,
+                                                              final List<String> joinByColumns,
+                                                              final int maxJoinDepth,
+                                                              final int skip,
+                                                              final int limit){
+        return searchRepository.searchValues(columnSearches, predicate, limitByUploads, joinByColumns, maxJoinDepth, skip, limit);
+    }
+
+    @Override
+    public final void streamSearch(final List<String> columnSearches,
+                                   final LogicalPredicate predicate,
+                                   final List<String> limitByUploads,
+                                   final List<String> joinByColumns,
+                                   final int maxJoinDepth,
+                                   final String after,
+                                   final int skip,
+                                   final int limit,
+                                   final int batchSize,
+                                   final RowSink sink) throws IOException {
+        searchRepository.streamSearch(columnSearches, predicate, limitByUploads, joinByColumns, maxJoinDepth, after, skip, limit, batchSize, sink);
+    }
+}
@@ -0,0 +1,145 @@
+package com.dataprocessor.server.repositories;
+
+import com.dataprocessor.server.entities.SearchEntity;
+import com.dataprocessor.server.utils.Signature;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+//Pages of search results by the signature of the normalized search and its paging. Entries expire after a TTL, the
+//least recently used go first once full, and all of them are dropped whenever an upload changes the searchable rows.
+@Service
+public final class SearchCache {
+    private final int maxEntries;
+    private final int maxRowsPerEntry;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    //Bumped by invalidate(), so a search that started before is not cached after it
+    private long generation;
+
+    @Autowired
+    public SearchCache(final MeterRegistry registry,
+                       @Value("${search.cache.maxEntries:1000}") final int maxEntries,
+                       @Value("${search.cache.maxRowsPerEntry:1000}") final int maxRowsPerEntry,
+                       @Value("${search.cache.ttlSeconds:60}") final long ttlSeconds){
+        this(registry, maxEntries, maxRowsPerEntry, ttlSeconds, System::currentTimeMillis);
+    }
+
+    SearchCache(final MeterRegistry registry,
+                final int maxEntries,
+                final int maxRowsPerEntry,
+                final long ttlSeconds,
+                final LongSupplier clock){
+        this.clock = clock;
+        this.maxEntries = Math.max(0, maxEntries);
+        this.maxRowsPerEntry = Math.max(0, maxRowsPerEntry);
+        this.ttlMillis = Math.max(0, ttlSeconds) * 1000;
+        this.hits = Counter.builder("search.cache.hits")
+                .description("Searches answered from the cache")
+                .register(registry);
+        this.misses = Counter.builder("search.cache.misses")
+                .description("Searches that ran against the storage engine")
+                .register(registry);
+        this.evictions = Counter.builder("search.cache.evictions")
+                .description("Cached pages dropped because the cache was full or they expired")
+                .register(registry);
+        Gauge.builder("search.cache.size", this, SearchCache::size)
+                .description("Cached pages")
+                .register(registry);
+    }
+
+    //Returns the cached page of the search, in the shape of the search API version, or loads and caches it.
+    public final List<Map<String, List<String>>> get(final SearchEntity search,
+                                                     final int apiVersion,
+                                                     final String after,
+                                                     final int skip,
+                                                     final int limit,
+                                                     final Supplier<List<Map<String, List<String>>>> loader){
+        if (maxEntries == 0 || ttlMillis == 0 || limit > maxRowsPerEntry)
+            return loader.get();
+        final String key = Signature.getSignature(List.of(normalize(search), apiVersion, String.valueOf(after), skip, limit));
+        final long loadedGeneration;
+        synchronized (this){
+            final Entry entry = entries.get(key);
+            if (entry != null){
+                if (entry.expiresAt > clock.getAsLong()){
+                    hits.increment();
+                    return copy(entry.rows);
+                }
+                entries.remove(key);
+                evictions.increment();
+            }
+            loadedGeneration = generation;
+        }
+        misses.increment();
+        final List<Map<String, List<String>>> rows = loader.get();
+        synchronized (this){
+            if (loadedGeneration == generation){
+                entries.put(key, new Entry(copy(rows), clock.getAsLong() + ttlMillis));
+                final Iterator<Entry> eldest = entries.values().iterator();
+                while (entries.size() > maxEntries){
+                    eldest.next();
+                    eldest.remove();
+                    evictions.increment();
+                }
+            }
+        }
+        return rows;
+    }
+
+    public final synchronized void invalidate(){
+        generation++;
+        entries.clear();
+    }
+
+    public final synchronized int size(){
+        return entries.size();
+    }
+
+    //Searches that only differ in case, spacing, the order of their queries or uploads, or an unused join depth share a key
+    private static final SearchEntity normalize(final SearchEntity search){
+        final List<String> columnSearches = new ArrayList<>(search.columnSearches.size());
+        for(final String columnSearch : search.columnSearches){
+            final SearchRepository.SearchQuery query = SearchRepository.SearchQuery.parse(columnSearch);
+            columnSearches.add(query.node + ":" + query.queryType + ":" + query.query);
+        }
+        Collections.sort(columnSearches);
+        final List<String> uploads = new ArrayList<>(new TreeSet<>(search.limitByUploads));
+        final int maxJoinDepth = search.joinByColumns.isEmpty() ? 0 : Math.max(0, search.maxJoinDepth);
+        return new SearchEntity(columnSearches, search.predicate, uploads, maxJoinDepth == 0 ? List.of() : search.joinByColumns, maxJoinDepth);
+    }
+
+    //Callers modify the rows they get, e.g. exports drop '_id'
+    private static final List<Map<String, List<String>>> copy(final List<Map<String, List<String>>> rows){
+        final List<Map<String, List<String>>> res = new ArrayList<>(rows.size());
+        for(final Map<String, List<String>> row : rows){
+            final Map<String, List<String>> rowCopy = new HashMap<>(row.size() * 2);
+            for(final Map.Entry<String, List<String>> e : row.entrySet()){
+                rowCopy.put(e.getKey(), new ArrayList<>(e.getValue()));
+            }
+            res.add(rowCopy);
+        }
+        return res;
+    }
+
+    private static final class Entry{
+        private final List<Map<String, List<String>>> rows;
+        private final long expiresAt;
+
+        private Entry(final List<Map<String, List<String>>> rows, final long expiresAt){
+            this.rows = rows;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -6,10 +6,10 @@ import com.dataprocessor.server.utils.ListUtils;
 import com.dataprocessor.server.utils.StringTransformer;
 import com.dataprocessor.server.utils.StringUtil;
 import com.dataprocessor.server.utils.json.JSON;
-import com.dataprocessor.server.utils.tuples.Tuple2;
 import org.neo4j.driver.Record;
 import org.neo4j.driver.Result;
 import org.neo4j.driver.SessionConfig;
+import org.neo4j.driver.Value;
 import org.neo4j.driver.types.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,6 +18,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
@@ -26,9 +27,15 @@ import java.util.stream.Collectors;
 public class SearchRepository {
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final Neo4jManager neo4jManager;
+    private final IndexManager indexManager;
+    private final ColumnsRepository columnsRepository;
     @Autowired
-    public SearchRepository(final Neo4jManager neo4jManager){
+    public SearchRepository(final Neo4jManager neo4jManager,
+                            final IndexManager indexManager,
+                            final ColumnsRepository columnsRepository){
         this.neo4jManager = neo4jManager;
+        this.indexManager = indexManager;
+        this.columnsRepository = columnsRepository;
     }
 
     public final List<Map<String, List<String>>> search(final List<String> columnSearches,
@@ -36,19 +43,108 @@ public class SearchRepository {
                                                         final List<String> limitByUploads,
                                                         final List<String> joinByColumns,
                                                         final int maxJoinDepth,
+                                                        final String after,
                                                         final int skip,
                                                         final int limit){
         final List<SearchQuery> queries = columnSearches.stream().map(SearchQuery::new).toList();
-        final List<Map<String, List<String>>> res;
-        if (limitByUploads.isEmpty()){
-            res = unlimitedByUploads(queries, predicate, joinByColumns, maxJoinDepth, skip, limit);
-        } else {
-            res = limitedByUploads(queries, predicate, limitByUploads, joinByColumns, maxJoinDepth, skip, limit);
+        final Map<String, Object> queryParams = new HashMap<>(32);
+        //Seeds and their values in one round trip
+        final String query = buildSeedQuery(queries, predicate, limitByUploads, after, skip, limit, queryParams) + " " + ROW_PROJECTION;
+        logger.info("{} search: '{}' params: {}", limitByUploads.isEmpty() ? "Unlimited" : "Limited", query, JSON.toJson(queryParams));
+        final List<Map<String, List<String>>> result;
+        try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
+            result = session.run(query, queryParams).list().stream().map(SearchRepository::toRow).toList();
+        }catch (final Throwable cause){
+            logger.error("Failed to execute seed query: '{}'. Params: {}. Cause:", query, JSON.toJson(queryParams), cause);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to execute seed query.", cause);
         }
-        return res;
+        if (joinByColumns.isEmpty() || maxJoinDepth <= 0)
+            return result;
+        return enrichSeedSearchWithJoins(result, joinByColumns, maxJoinDepth);
     }
 
+    //Search API version 1: one result per matching value node, '_id' is the node's element id and each column holds a
+    //single value of the rows owning it. Joins add the values of the joined rows as in version 2.
+    public final List<Map<String, List<String>>> searchValues(final List<String> columnSearches,
+                                                              final LogicalPredicate predicate,
+                                                              final List<String> limitByUploads,
+                                                              final List<String> joinByColumns,
+                                                              final int maxJoinDepth,
+                                                              final int skip,
+                                                              final int limit){
+        final List<SearchQuery> queries = columnSearches.stream().map(SearchQuery::new).toList();
+        final Map<String, Object> queryParams = new HashMap<>(32);
+        queryParams.put("skip", skip);
+        queryParams.put("limit", limit);
+        final String query = buildSeedMatch(queries, limitByUploads, buildWhereClause(queries, predicate, queryParams), queryParams)
+                + " WITH DISTINCT n SKIP $skip LIMIT $limit " + VALUE_PROJECTION;
+        logger.info("{} value search: '{}' params: {}", limitByUploads.isEmpty() ? "Unlimited" : "Limited", query, JSON.toJson(queryParams));
+        final List<Map<String, List<String>>> result;
+        try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
+            result = session.run(query, queryParams).list().stream().map(SearchRepository::toValue).toList();
+        }catch (final Throwable cause){
+            logger.error("Failed to execute seed query: '{}'. Params: {}. Cause:", query, JSON.toJson(queryParams), cause);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to execute seed query.", cause);
+        }
+        if (joinByColumns.isEmpty() || maxJoinDepth <= 0)
+            return result;
+        return enrichSeedSearchWithJoins(result, joinByColumns, maxJoinDepth);
+    }
 
+    //Pulls the seeds from the driver cursor, which fetches them from the server as they are consumed, and hands them to
+    //the sink in enriched batches. Rows are only ordered when resuming after a cursor, sorting would hold back the first
+    //batch until every seed is found. When the sink throws, closing the session discards the rest of the query.
+    public final void streamSearch(final List<String> columnSearches,
+                                   final LogicalPredicate predicate,
+                                   final List<String> limitByUploads,
+                                   final List<String> joinByColumns,
+                                   final int maxJoinDepth,
+                                   final String after,
+                                   final int skip,
+                                   final int limit,
+                                   final int batchSize,
+                                   final StorageEngine.RowSink sink) throws IOException {
+        final List<SearchQuery> queries = columnSearches.stream().map(SearchQuery::new).toList();
+        final Map<String, Object> queryParams = new HashMap<>(32);
+        final String query = buildSeedQuery(queries, predicate, limitByUploads, after, skip, limit, queryParams) + " " + ROW_PROJECTION;
+        logger.info("Streamed search: '{}' params: {}", query, JSON.toJson(queryParams));
+        try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
+            final Result result = session.run(query, queryParams);
+            List<Map<String, List<String>>> batch = new ArrayList<>(batchSize);
+            while (result.hasNext()){
+                batch.add(toRow(result.next()));
+                if (batch.size() >= batchSize){
+                    sink.accept(joinByColumns.isEmpty() || maxJoinDepth <= 0 ? batch : enrichSeedSearchWithJoins(batch, joinByColumns, maxJoinDepth));
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()){
+                sink.accept(joinByColumns.isEmpty() || maxJoinDepth <= 0 ? batch : enrichSeedSearchWithJoins(batch, joinByColumns, maxJoinDepth));
+            }
+        }catch (final IOException cause){
+            logger.info("Streamed search stopped, the client went away.");
+            throw cause;
+        }catch (final Throwable cause){
+            logger.error("Failed to execute streamed search: '{}'. Params: {}. Cause:", query, JSON.toJson(queryParams), cause);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to execute streamed search.", cause);
+        }
+    }
+
+    //Values of the row 'src' as [column, value] pairs, collected next to its row id 'sid'
+    private static final String ROW_PROJECTION = "RETURN sid AS id, [(src)-[:OWNS]->(r) | [head(labels(r)), r.value]] AS cells;";
+
+    //One result per row (search API version 2): '_id' is the row id, each column lists the row's distinct values.
+    private static final Map<String, List<String>> toRow(final Record record){
+        final Map<String, List<String>> row = new HashMap<>(16);
+        row.put("_id", ListUtils.listOfString(record.get("id").asString()));
+        for(final List<String> cell : record.get("cells").asList(v -> v.asList(Value::asString))){
+            final List<String> values = row.computeIfAbsent(cell.get(0), k -> new ArrayList<>(2));
+            if (!values.contains(cell.get(1))){
+                values.add(cell.get(1));
+            }
+        }
+        return row;
+    }
 
     private final String buildWhereClause(final List<SearchQuery> queries,
                                           final LogicalPredicate predicate,
@@ -60,7 +156,15 @@ public class SearchRepository {
             queryParams.put(paramName, q.query);
             switch (q.queryType){
                 case MATCHES -> bld.append("n.value = $").append(paramName);
-                case ENDS_WITH -> bld.append("n.value ENDS WITH $").append(paramName);
+                case ENDS_WITH -> {
+                    if (indexKind(q) == IndexManager.IndexKind.REVERSED){
+                        //Suffix of the value is a prefix of the reversed value, which a range index serves
+                        queryParams.put(paramName, new StringBuilder(q.query).reverse().toString());
+                        bld.append("n.reversed STARTS WITH $").append(paramName);
+                    }else{
+                        bld.append("n.value ENDS WITH $").append(paramName);
+                    }
+                }
                 case STARTS_WITH -> bld.append("n.value STARTS WITH $").append(paramName);
                 case CONTAINS -> bld.append("n.value CONTAINS $").append(paramName);
             }
@@ -68,6 +172,31 @@ public class SearchRepository {
         }).collect(Collectors.joining(" " + predicate.toString() + " "));
     }
 
+    //The index is hinted only when all predicates target one column through the same kind of index and the catalog knows
+    //an online index serving it. Indexes are created while ingesting, never by a search, which only records the kinds of
+    //predicates that found no index, so ingestion knows which columns need one.
+    private final String buildIndexHint(final List<SearchQuery> queries){
+        for(final SearchQuery q : queries){
+            if (indexManager.effectiveIndex(q.node, indexKind(q)) == null){
+                indexManager.recordSearch(q.node, indexKind(q));
+            }
+        }
+        final SearchQuery first = queries.getFirst();
+        for(final SearchQuery q : queries){
+            if (!q.node.equals(first.node) || indexKind(q) != indexKind(first))
+                return "";
+        }
+        if (!indexManager.isValueIndexOnline(first.node, indexKind(first)))
+            return "";
+        return " " + indexKind(first).hint("n", first.node);
+    }
+
+    private final IndexManager.IndexKind indexKind(final SearchQuery query){
+        if (query.queryType == SearchQuery.QueryType.ENDS_WITH && columnsRepository.isReversedComplete(query.node))
+            return IndexManager.IndexKind.REVERSED;
+        return query.queryType.indexKind();
+    }
+
     private final String buildWhereClauseForUploads(final List<String> uploads,
                                                     final Map<String, Object> queryParams){
         final StringBuilder sb = new StringBuilder(1024);
@@ -84,36 +213,120 @@ public class SearchRepository {
         return sb.toString();
     }
 
-    private final List<Map<String, List<String>>> unlimitedByUploads(final List<SearchQuery> queries,
-                                                                     final LogicalPredicate predicate,
-                                                                     final List<String> joinByColumns,
-                                                                     final int maxJoinDepth,
-                                                                     final int skip,
-                                                                     final int limit){
-        final Map<String, Object> queryParams = new HashMap<>(32);
-        final String query = String.format("MATCH (n:%s) WHERE %s RETURN n SKIP %d LIMIT %d;",
-                queries.stream().map(q->q.node).distinct().collect(Collectors.joining("|")),
-                buildWhereClause(queries, predicate, queryParams),
-                skip, limit);
-        logger.info("Unlimited search: '{}' params: {}", query, JSON.toJson(queryParams));
-        return enrichSeedSearch(query, queryParams, joinByColumns, maxJoinDepth);
+    //Values of the rows owning the value node 'n', next to the node's element id
+    private static final String VALUE_PROJECTION = "RETURN elementId(n) AS id, [(n)<-[:OWNS]-(:Row)-[:OWNS]->(r) | [head(labels(r)), r.value]] AS cells;";
+
+    //One result per value node (search API version 1): a later value of a column replaces an earlier one.
+    private static final Map<String, List<String>> toValue(final Record record){
+        final Map<String, List<String>> res = new HashMap<>(16);
+        res.put("_id", ListUtils.listOfString(record.get("id").asString()));
+        for(final List<String> cell : record.get("cells").asList(v -> v.asList(Value::asString))){
+            res.put(cell.get(0), ListUtils.listOfString(cell.get(1)));
+        }
+        return res;
+    }
+
+    //Seed rows: rows owning a value, in one of the searched columns, that satisfies the predicate, bound to 'src' for
+    //the RETURN clause the caller appends. Both forms are driven by the value index, so a selective search only touches
+    //its matches. Without 'after' rows come in no particular order and the query stops at the limit. With it (empty to
+    //start) only matches past 'after' are kept and the top 'limit' of them by 'rowId' make the page, the next page
+    //resumes after its last id. Keyset pages take no SKIP, the cursor already says where they start. Paging is
+    //parameterized too, so pages of one search share a plan.
+    private final String buildSeedQuery(final List<SearchQuery> queries,
+                                        final LogicalPredicate predicate,
+                                        final List<String> limitByUploads,
+                                        final String after,
+                                        final int skip,
+                                        final int limit,
+                                        final Map<String, Object> queryParams){
+        queryParams.put("limit", limit);
+        final String page;
+        String where = buildWhereClause(queries, predicate, queryParams);
+        if (after != null){
+            queryParams.put("after", after);
+            where = "(" + where + ") AND src.rowId > $after";
+            page = "WITH DISTINCT src, src.rowId AS sid ORDER BY sid LIMIT $limit";
+        }else{
+            queryParams.put("skip", skip);
+            page = "WITH DISTINCT src, src.rowId AS sid SKIP $skip LIMIT $limit";
+        }
+        return buildSeedMatch(queries, limitByUploads, where, queryParams) + " " + page;
+    }
+
+    //Matches the values 'n' satisfying 'where' and the rows 'src' owning them, within the uploads when there are any.
+    private final String buildSeedMatch(final List<SearchQuery> queries,
+                                        final List<String> limitByUploads,
+                                        final String where,
+                                        final Map<String, Object> queryParams){
+        final String labels = queries.stream().map(q->q.node).distinct().collect(Collectors.joining("|"));
+        if (limitByUploads.isEmpty()){
+            return String.format("MATCH (n:%s)<-[:OWNS]-(src:Row)%s WHERE %s",
+                    labels,
+                    buildIndexHint(queries),
+                    where);
+        }
+        return String.format("MATCH (n:%s)<-[:OWNS]-(src:Row)<-[:OWNS]-(u:Upload)%s WHERE (%s) AND (%s)",
+                labels,
+                buildIndexHint(queries),
+                where,
+                buildWhereClauseForUploads(limitByUploads, queryParams));
     }
 
-    private final List<Map<String, List<String>>> limitedByUploads(final List<SearchQuery> queries,
-                                                                   final LogicalPredicate predicate,
-                                                                   final List<String> limitByUploads,
-                                                                   final List<String> joinByColumns,
-                                                                   final int maxJoinDepth,
-                                                                   final int skip,
-                                                                   final int limit){
+    //Row ids of the seed rows, see StorageEngine.findRows.
+    public final List<String> findRowIds(final List<SearchQuery> queries,
+                                         final LogicalPredicate predicate,
+                                         final List<String> limitByUploads,
+                                         final String after,
+                                         final int skip,
+                                         final int limit){
         final Map<String, Object> queryParams = new HashMap<>(32);
-        final String query = String.format("MATCH (n:%s)<-[:OWNS]-(:Row)<-[:OWNS]-(u:Upload) WHERE (%s) AND (%s) RETURN n SKIP %d LIMIT %d;",
-                queries.stream().map(q->q.node).distinct().collect(Collectors.joining("|")),
-                buildWhereClause(queries, predicate, queryParams),
-                buildWhereClauseForUploads(limitByUploads, queryParams),
-                skip, limit);
-        logger.info("Limited search: '{}' params: {}", query, JSON.toJson(queryParams));
-        return enrichSeedSearch(query, queryParams, joinByColumns, maxJoinDepth);
+        final String query = buildSeedQuery(queries, predicate, limitByUploads, after, skip, limit, queryParams) + " RETURN sid AS id;";
+        try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
+            return session.run(query, queryParams).list().stream().map(r -> r.get("id").asString()).toList();
+        }catch (final Throwable cause){
+            logger.error("Failed to execute seed query: '{}'. Params: {}. Cause:", query, JSON.toJson(queryParams), cause);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to execute seed query.", cause);
+        }
+    }
+
+    //Values of each row by column and its id under '_id', in the order of the ids. Unknown ids are skipped.
+    public final List<Map<String, List<String>>> fetchRows(final List<String> rowIds){
+        if (rowIds.isEmpty())
+            return new ArrayList<>(0);
+        final String query = "UNWIND $ids AS sid MATCH (src:Row {rowId: sid}) " + ROW_PROJECTION;
+        final Map<String, Map<String, List<String>>> rows = new HashMap<>(rowIds.size() * 2);
+        try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
+            session.run(query, Map.of("ids", rowIds)).forEachRemaining(r -> {
+                final Map<String, List<String>> row = toRow(r);
+                rows.put(row.get("_id").getFirst(), row);
+            });
+        }catch (final Throwable cause){
+            logger.error("Failed to execute row query: '{}'. Cause:", query, cause);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to execute row query.", cause);
+        }
+        final List<Map<String, List<String>>> res = new ArrayList<>(rowIds.size());
+        for(final String id : rowIds){
+            final Map<String, List<String>> row = rows.get(id);
+            if (row != null){
+                res.add(row);
+            }
+        }
+        return res;
+    }
+
+    //Row ids of at most 'maxRows' rows owning one of the values in the column.
+    public final List<String> expandJoin(final String column, final List<String> values, final int maxRows){
+        final String query = String.format("""
+                MATCH (n:%s) WHERE n.value IN $values
+                MATCH (n)<-[:OWNS]-(src:Row)
+                RETURN DISTINCT src.rowId AS id LIMIT $limit;
+                """, column);
+        try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
+            return session.run(query, Map.of("values", values, "limit", maxRows)).list().stream().map(r -> r.get("id").asString()).toList();
+        }catch (final Throwable cause){
+            logger.error("Failed to execute join query: '{}'. Cause:", query, cause);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to execute join query.", cause);
+        }
     }
 
     public final MatchEntity updateMatchProgress(final String name, final long processed){
@@ -210,86 +423,53 @@ public class SearchRepository {
         }
     }
 
-    private final List<Map<String, List<String>>> enrichSeedSearch(final String seedQuery,
-                                                                   final Map<String, Object> queryParams,
-                                                                   final List<String> joinByColumns,
-                                                                   final int maxJoinDepth){
-        final List<Map<String, List<String>>> result;
-        try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
-            result = session.run(seedQuery, queryParams).list().stream()
-                    .map(r->{
-                        final String seedNodeId = r.get("n").asNode().elementId();
-                        final String query = String.format("""
-                                MATCH (n)<-[:OWNS]-(src:Row) WHERE elementId(n) = '%s'
-                                MATCH (src)-[:OWNS]->(r)
-                                RETURN r;
-                                """, seedNodeId);
-                        final List<Tuple2<String, String>> nodes = session.run(query).stream().map(record -> {
-                            final Node node = record.get("r").asNode();
-                            return new Tuple2<>(ListUtils.getFirst(node.labels(), ""), node.get("value").asString());
-                        }).toList();
-                        final Map<String, List<String>> res = new HashMap<>(nodes.size() * 2);
-                        res.put("_id", ListUtils.listOfString(seedNodeId));
-                        for(final Tuple2<String, String> nd : nodes){
-                            res.put(nd.v1, ListUtils.listOfString(nd.v2));
-                        }
-                        return res;
-                    }).toList();
-        }catch (final Throwable cause){
-            logger.error("Failed to execute seed query: '{}'. Params: {}. Cause:", seedQuery, JSON.toJson(queryParams), cause);
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to execute seed query.", cause);
-        }
-        if (joinByColumns.isEmpty() || maxJoinDepth <=0){
-            return result;
-        }else{
-            return enrichSeedSearchWithJoins(result, joinByColumns, maxJoinDepth);
-        }
-    }
-
-    private final List<Map<String, List<String>>> enrichSeedSearchWithJoins(List<Map<String, List<String>>> seedResults,
+    //Joins are expanded column by column, each as one query over all seeds, so a column sees the values the previous
+    //ones added. Every seed joins at most 'maxJoinDepth' + 1 rows, itself included, limited by the server.
+    private final List<Map<String, List<String>>> enrichSeedSearchWithJoins(final List<Map<String, List<String>>> seedResults,
                                                                             final List<String> joinByColumns,
                                                                             final int _maxJoinDepth){
         final int maxJoinDepth = _maxJoinDepth + 1;
+        final Map<String, Map<String, List<String>>> seedsById = new HashMap<>(seedResults.size() * 2);
+        for(final Map<String, List<String>> seed : seedResults){
+            seedsById.put(seed.get("_id").getFirst(), seed);
+        }
         try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
-            return seedResults.stream().map(seed->{
-                for(final String joinOn : joinByColumns){
+            for(final String joinOn : joinByColumns){
+                final List<Map<String, Object>> frontier = new ArrayList<>(seedResults.size());
+                for(final Map<String, List<String>> seed : seedResults){
                     if (seed.containsKey(joinOn)){
-                        final String query = String.format("""
-                                MATCH (src)-[:OWNS]->(n:%s) WHERE n.value = '%s'
-                                MATCH (src)-[:OWNS]->(r)
-                                return r, src;
-                                """, joinOn, seed.get(joinOn));
-                        final List<Tuple2<String, String>> recordLst = new ArrayList<>(maxJoinDepth);
-                        try {
-                            final Result queryResult = session.run(query);
-                            final HashSet<String> idCounter = new HashSet<>(maxJoinDepth * 2);
-                            while (queryResult.hasNext()){
-                                final Record record = queryResult.next();
-                                final String srcId = record.get("src").asNode().elementId();
-                                final Node node = record.get("r").asNode();
-                                idCounter.add(srcId);
-                                if (idCounter.size() > maxJoinDepth)
-                                    break;
-
-                                recordLst.add(new Tuple2<>(ListUtils.getFirst(node.labels(), ""), node.get("value").asString()));
-                            }
-                            for(final Tuple2<String, String> r : recordLst){
-                                final List<String> rLst = seed.get(r.v1);
-                                if (rLst == null){
-                                    seed.put(r.v1, ListUtils.listOfString(r.v2));
-                                }else{
-                                    if (!rLst.contains(r.v2)){
-                                        rLst.add(r.v2);
-                                    }
-                                }
+                        frontier.add(Map.of("id", seed.get("_id").getFirst(), "values", new ArrayList<>(seed.get(joinOn))));
+                    }
+                }
+                if (frontier.isEmpty())
+                    continue;
+                //Rows sharing a value are two hops apart, through a shared value node or the value index
+                final String query = String.format("""
+                        UNWIND $seeds AS seed
+                        CALL {
+                            WITH seed
+                            MATCH (n:%s) WHERE n.value IN seed.values
+                            MATCH (n)<-[:OWNS]-(src:Row)
+                            WITH DISTINCT src LIMIT $limit
+                            RETURN [(src)-[:OWNS]->(r) | [head(labels(r)), r.value]] AS cells
+                        }
+                        RETURN seed.id AS id, cells;
+                        """, joinOn);
+                try {
+                    session.run(query, Map.of("seeds", frontier, "limit", maxJoinDepth)).forEachRemaining(record -> {
+                        final Map<String, List<String>> seed = seedsById.get(record.get("id").asString());
+                        for(final List<String> cell : record.get("cells").asList(v -> v.asList(Value::asString))){
+                            final List<String> values = seed.computeIfAbsent(cell.get(0), k -> ListUtils.listOfString());
+                            if (!values.contains(cell.get(1))){
+                                values.add(cell.get(1));
                             }
-                        }catch (final Throwable innerCause){
-                            logger.error("Failed to execute join query. Cause:", innerCause);
                         }
-                    }
+                    });
+                }catch (final Throwable innerCause){
+                    logger.error("Failed to execute join query: '{}'. Cause:", query, innerCause);
                 }
-                return seed;
-            }).toList();
+            }
+            return seedResults;
         }catch (final Throwable cause){
             logger.error("Failed to execute enrichment query. Cause:", cause);
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to execute enrichment query.", cause);
@@ -304,6 +484,10 @@ public class SearchRepository {
         public final String query;
         public final QueryType queryType;
 
+        public static final SearchQuery parse(final String query){
+            return new SearchQuery(query);
+        }
+
         private SearchQuery(final String query){
             final String[] split = query.split(":");
             if (split.length < 2){
@@ -340,8 +524,22 @@ public class SearchRepository {
             }
         }
 
+        //Evaluates the query against a value, for storage engines that do not run it as Cypher.
+        public final boolean test(final String value){
+            return switch (queryType){
+                case MATCHES -> value.equals(query);
+                case STARTS_WITH -> value.startsWith(query);
+                case ENDS_WITH -> value.endsWith(query);
+                case CONTAINS -> value.contains(query);
+            };
+        }
+
         public static enum QueryType{
-            STARTS_WITH, ENDS_WITH, CONTAINS, MATCHES
+            STARTS_WITH, ENDS_WITH, CONTAINS, MATCHES;
+
+            public final IndexManager.IndexKind indexKind(){
+                return this == CONTAINS || this == ENDS_WITH ? IndexManager.IndexKind.TEXT : IndexManager.IndexKind.RANGE;
+            }
         }
     }
 }
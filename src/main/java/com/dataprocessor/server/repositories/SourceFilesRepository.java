@@ -1,9 +1,7 @@
 package com.dataprocessor.server.repositories;
 
-import com.dataprocessor.server.utils.TempFileUtil;
 import io.minio.*;
 import io.minio.errors.*;
-import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -49,17 +47,64 @@ public final class SourceFilesRepository {
         }
     }
 
-    public final File getSourceFile(final String name){
+    //Multipart upload of a stream of unknown length, e.g. one branch of a request body that is parsed at the same time.
+    public final void saveSourceFile(final String name, final InputStream stream){
         try {
-            final File res = TempFileUtil.createTmpFile(".data");
-            FileUtils.copyInputStreamToFile(minioClient.getObject(GetObjectArgs.builder()
+            minioClient.putObject(PutObjectArgs
+                    .builder()
+                    .bucket(bucket)
+                    .object(name)
+                    .stream(stream, -1, 10 * 1024 * 1024)
+                    .build());
+        }catch (final Throwable cause){
+            logger.warn("Failed to save source file '{}'", name, cause);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to upload source file '" + name + "'.", cause);
+        }
+    }
+
+    public final long getSourceFileSize(final String name){
+        try {
+            return minioClient.statObject(StatObjectArgs.builder()
+                    .bucket(bucket)
+                    .object(name)
+                    .build()).size();
+        }catch (final Throwable cause){
+            logger.warn("Failed to stat source file '{}'", name, cause);
+            throw new ResponseStatusException(statusOf(cause), "Failed to get source file '" + name + "'.", cause);
+        }
+    }
+
+    public final byte[] readSourceFileHead(final String name, final int length){
+        try (final InputStream is = minioClient.getObject(GetObjectArgs.builder()
+                .bucket(bucket)
+                .object(name)
+                .offset(0L)
+                .length((long) length)
+                .build())) {
+            return is.readAllBytes();
+        }catch (final Throwable cause){
+            logger.warn("Failed to read head of source file '{}'", name, cause);
+            throw new ResponseStatusException(statusOf(cause), "Failed to get source file '" + name + "'.", cause);
+        }
+    }
+
+    public final InputStream openSourceFile(final String name, final long offset){
+        try {
+            return minioClient.getObject(GetObjectArgs.builder()
                     .bucket(bucket)
                     .object(name)
-                    .build()), res);
-            return res;
+                    .offset(offset)
+                    .build());
         }catch (final Throwable cause){
-            logger.warn("Failed to get source file '{}'", name, cause);
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to get source file '" + name + "'.", cause);
+            logger.warn("Failed to open source file '{}' at offset {}", name, offset, cause);
+            throw new ResponseStatusException(statusOf(cause), "Failed to get source file '" + name + "'.", cause);
         }
     }
+
+    //NOT_FOUND only when MinIO says the object does not exist, any other failure may be transient.
+    private static final HttpStatus statusOf(final Throwable cause){
+        if (cause instanceof ErrorResponseException e && e.errorResponse() != null && "NoSuchKey".equals(e.errorResponse().code()))
+            return HttpStatus.NOT_FOUND;
+        return HttpStatus.INTERNAL_SERVER_ERROR;
+    }
 }
@@ -0,0 +1,135 @@
+package com.dataprocessor.server.repositories;
+
+import com.dataprocessor.server.entities.LogicalPredicate;
+import com.dataprocessor.server.entities.UploadDescriptor;
+import com.dataprocessor.server.utils.ListUtils;
+import com.dataprocessor.server.utils.tuples.Tuple2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+//Where uploaded rows and their values live, selected with 'storage.engine'. Upload descriptors, matches and the
+//resume state stay in Neo4j whichever engine holds the rows.
+public interface StorageEngine {
+    //Stores the rows and, when 'processed' is not negative, advances the upload's checkpoint. Without rows it only
+    //advances the checkpoint. 'rows' holds the source row number of each record, records of rows the upload already
+    //stored are skipped, so a batch committed again after a resume or a lost acknowledgement is not duplicated.
+    void writeRows(UploadDescriptor upload,
+                   long processed,
+                   long checkpointOffset,
+                   long totalRows,
+                   List<Long> rows,
+                   List<List<Tuple2<String, String>>> records);
+
+    //Ids of the rows owning a value, in one of the searched columns, that satisfies the predicate over all queries.
+    //With 'after' (empty to start) rows come in id order starting after that row, otherwise in any order.
+    List<String> findRows(List<SearchRepository.SearchQuery> queries,
+                          LogicalPredicate predicate,
+                          List<String> limitByUploads,
+                          String after,
+                          int skip,
+                          int limit);
+
+    //Values of each row by column and its id under '_id', in the order of the ids. Unknown ids are skipped.
+    List<Map<String, List<String>>> fetchRows(List<String> rowIds);
+
+    //Ids of at most 'maxRows' rows owning one of the values in the column.
+    List<String> expandJoin(String column, List<String> values, int maxRows);
+
+    List<String> listColumns();
+
+    //Removes every row of the upload, e.g. what a failed upload committed before it could no longer be resumed.
+    void deleteRows(UploadDescriptor upload);
+
+    //The checkpoint persisted together with the rows of the upload, as (processed, checkpoint offset), or null when the
+    //upload's own checkpoint is written in the same transaction as its rows and never lags behind them.
+    default Tuple2<Long, Long> checkpointOf(final String uploadName){
+        return null;
+    }
+
+    //Seed rows, enriched with the values of the rows they share a value with in each of 'joinByColumns'.
+    default List<Map<String, List<String>>> search(final List<String> columnSearches,
+                                                   final LogicalPredicate predicate,
+                                                   final List<String> limitByUploads,
+                                                   final List<String> joinByColumns,
+                                                   final int maxJoinDepth,
+                                                   final String after,
+                                                   final int skip,
+                                                   final int limit){
+        final List<SearchRepository.SearchQuery> queries = columnSearches.stream().map(SearchRepository.SearchQuery::parse).toList();
+        return join(fetchRows(findRows(queries, predicate, limitByUploads, after, skip, limit)), joinByColumns, maxJoinDepth);
+    }
+
+    //Search API version 1: one result per matching value with its id under '_id' and a single value per column, joins
+    //add the values of the joined rows. Engines without value nodes have one value per row and column, so a matching
+    //row stands for its value and keeps the row id.
+    default List<Map<String, List<String>>> searchValues(final List<String> columnSearches,
+                                                         final LogicalPredicate predicate,
+                                                         final List<String> limitByUploads,
+                                                         final List<String> joinByColumns,
+                                                         final int maxJoinDepth,
+                                                         final int skip,
+                                                         final int limit){
+        final List<SearchRepository.SearchQuery> queries = columnSearches.stream().map(SearchRepository.SearchQuery::parse).toList();
+        final List<Map<String, List<String>>> rows = fetchRows(findRows(queries, predicate, limitByUploads, null, skip, limit));
+        for(final Map<String, List<String>> row : rows){
+            row.replaceAll((column, values) -> values.size() > 1 ? ListUtils.listOfString(values.getLast()) : values);
+        }
+        return join(rows, joinByColumns, maxJoinDepth);
+    }
+
+    //Like search, but hands the rows to the sink in batches of 'batchSize' as they are enriched, instead of building
+    //the whole result first.
+    default void streamSearch(final List<String> columnSearches,
+                              final LogicalPredicate predicate,
+                              final List<String> limitByUploads,
+                              final List<String> joinByColumns,
+                              final int maxJoinDepth,
+                              final String after,
+                              final int skip,
+                              final int limit,
+                              final int batchSize,
+                              final RowSink sink) throws IOException {
+        final List<SearchRepository.SearchQuery> queries = columnSearches.stream().map(SearchRepository.SearchQuery::parse).toList();
+        final List<String> rowIds = findRows(queries, predicate, limitByUploads, after, skip, limit);
+        for (int i = 0; i < rowIds.size(); i += batchSize) {
+            sink.accept(join(fetchRows(rowIds.subList(i, Math.min(rowIds.size(), i + batchSize))), joinByColumns, maxJoinDepth));
+        }
+    }
+
+    private List<Map<String, List<String>>> join(final List<Map<String, List<String>>> rows,
+                                                 final List<String> joinByColumns,
+                                                 final int maxJoinDepth){
+        if (joinByColumns.isEmpty() || maxJoinDepth <= 0)
+            return rows;
+        for(final Map<String, List<String>> row : rows){
+            for(final String joinOn : joinByColumns){
+                final List<String> values = row.get(joinOn);
+                if (values == null)
+                    continue;
+                //The row itself is among the joined rows, as in the graph traversal
+                for(final Map<String, List<String>> joined : fetchRows(expandJoin(joinOn, new ArrayList<>(values), maxJoinDepth + 1))){
+                    for(final Map.Entry<String, List<String>> e : joined.entrySet()){
+                        if ("_id".equals(e.getKey()))
+                            continue;
+                        final List<String> rowValues = row.computeIfAbsent(e.getKey(), k -> ListUtils.listOfString());
+                        for(final String value : e.getValue()){
+                            if (!rowValues.contains(value)){
+                                rowValues.add(value);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    //Receives streamed rows. Throwing, e.g. because the client went away, stops the search.
+    @FunctionalInterface
+    interface RowSink {
+        void accept(List<Map<String, List<String>>> rows) throws IOException;
+    }
+}
@@ -2,7 +2,6 @@ package com.dataprocessor.server.repositories;
 
 import com.dataprocessor.server.entities.UploadDescriptor;
 import com.dataprocessor.server.entities.UploadMapping;
-import com.dataprocessor.server.utils.BlockingExecutor;
 import com.dataprocessor.server.utils.ListUtils;
 import com.dataprocessor.server.utils.StringUtil;
 import com.dataprocessor.server.utils.csv.CsvUtil;
@@ -20,9 +19,11 @@ import org.springframework.web.server.ResponseStatusException;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 
@@ -31,50 +32,140 @@ public class UploadRepository {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final Neo4jManager neo4jManager;
+    private final IndexManager indexManager;
+    private final SearchCache searchCache;
+    private final Map<List<Object>, String> bulkInsertQueries = new ConcurrentHashMap<>(64);
 
 
     @Autowired
     public UploadRepository(final Neo4jManager neo4jManager,
+                            final IndexManager indexManager,
+                            final SearchCache searchCache,
                             @Value("${server.port}") final String port){
         this.neo4jManager = neo4jManager;
+        this.indexManager = indexManager;
+        this.searchCache = searchCache;
     }
 
+    //Throws when the batch could not be committed, the caller decides whether to retry or split it.
     public final void addRecords(final UploadDescriptor upload,
-                                 final CsvUtil.CsvIterator iterator,
+                                 final long processed,
+                                 final long checkpointOffset,
+                                 final long totalRows,
+                                 final int batchSize,
+                                 final List<Long> rowNumbers,
                                  final List<List<Tuple2<String, String>>> records){
         if (records.isEmpty())
             return;
 
         final long startTime = System.currentTimeMillis();
-        final StringBuilder query = new StringBuilder(1024 * records.size());
-        final Map<String, Object> queryParams = new HashMap<>(16 + (ListUtils.sumOfLengths(records) * 2));
-        queryParams.put("uploadName", upload.name);
-        queryParams.put("uploadProcessed", iterator.getCurrentRow());
-        query.append("MATCH (upload:Upload {name:$uploadName}) SET upload.processed=$uploadProcessed").append('\n');
-
-        for (int rowNumber = 0; rowNumber < records.size(); rowNumber++) {
-            final List<Tuple2<String, String>> record = records.get(rowNumber);
-            final String rowIdKey = "rowId" + rowNumber;
-            queryParams.put(rowIdKey, StringUtil.generateId());
-            query.append("CREATE (upload)-[:OWNS]->(row").append(rowNumber).append(":Row {rowId:$").append(rowIdKey).append("})").append('\n');
-            for (int i = 0; i < record.size(); i++) {
-                final Tuple2<String, String> recordValue = record.get(i);
-                final String paramName = "p" + i + "_" + rowNumber;
-                query.append("CREATE (n").append(i).append("_").append(rowNumber).append(":").append(recordValue.v1).append(" {value:$").append(paramName).append("})").append('\n');
-                queryParams.put(paramName, recordValue.v2);
-            }
-            for (int i = 0; i < record.size(); i++) {
-                query.append("CREATE (n").append(i).append("_").append(rowNumber).append(")<-[:OWNS]-(row").append(rowNumber).append(")").append('\n');
+        final List<String> labels = destinationLabels(upload.mappings);
+        final String queryString = bulkInsertQuery(labels, sharedLabels(labels));
+        final List<Map<String, Object>> rows = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            //Group row values by destination label, so every label gets one FOREACH in the template
+            final Map<String, Object> row = new HashMap<>(4 + labels.size() * 2);
+            row.put("rowId", StringUtil.rowId(upload.name, rowNumbers.get(i)));
+            for (final Tuple2<String, String> recordValue : records.get(i)) {
+                final String key = "v" + labels.indexOf(recordValue.v1);
+                @SuppressWarnings("unchecked")
+                List<String> values = (List<String>) row.get(key);
+                if (values == null){
+                    values = new ArrayList<>(2);
+                    row.put(key, values);
+                }
+                values.add(recordValue.v2);
             }
+            rows.add(row);
         }
+        final Map<String, Object> queryParams = new HashMap<>(16);
+        queryParams.put("uploadName", upload.name);
+        queryParams.put("uploadProcessed", processed);
+        queryParams.put("checkpointOffset", checkpointOffset);
+        queryParams.put("batchSize", batchSize);
+        queryParams.put("outOf", totalRows);
+        queryParams.put("rows", rows);
+        queryParams.put("labels", labels);
 
-        final String queryString = query.toString();
         try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
             session.executeWrite(tx -> tx.run(queryString, queryParams).consume());
         } catch (final Throwable cause) {
-            logger.error("Failed to add a record. Query: '{}'", queryString, cause);
+            logger.debug("Failed to add records. Query: '{}'", queryString, cause);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to add records.", cause);
+        }
+        //Progress and throughput are exposed by the ingestion metrics
+        logger.debug("Multirow upload '{}' Row {} out of {}. Batch size: {}. Execution time: {} milliseconds.", upload.name, processed, totalRows, batchSize, (System.currentTimeMillis() - startTime));
+    }
+
+    public final void updateProcessed(final UploadDescriptor upload, final long processed, final long checkpointOffset, final long outOf){
+        final String query = """
+                MATCH (u:Upload {name:$name})
+                WITH u, u.processed < $processed AS advance
+                SET u.processed=CASE WHEN advance THEN $processed ELSE u.processed END, u.checkpointOffset=CASE WHEN advance THEN $checkpointOffset ELSE u.checkpointOffset END, u.outOf=$outOf;
+                """;
+        try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
+            session.executeWrite(tx-> tx.run(query, Map.of("name", upload.name, "processed", processed, "checkpointOffset", checkpointOffset, "outOf", outOf)).consume());
+        }catch (final Throwable cause){
+            logger.error("Failed to update processed rows. Query: {}. Cause:", query, cause);
+        }
+    }
+
+    private static final List<String> destinationLabels(final List<UploadMapping> mappings){
+        final List<String> labels = new ArrayList<>(mappings.size());
+        for(final UploadMapping mapping : mappings){
+            if (!labels.contains(mapping.destinationColumn)){
+                labels.add(mapping.destinationColumn);
+            }
         }
-        logger.info("Multirow upload '{}' Row {} out of {}. {}%. Execution time: {} milliseconds.", upload.name, iterator.getCurrentRow(), iterator.getTotalRows(), BigDecimal.valueOf(iterator.getCurrentRow()).divide(BigDecimal.valueOf(iterator.getTotalRows()), 10, RoundingMode.HALF_EVEN).multiply(BigDecimal.valueOf(100.0)), (System.currentTimeMillis() - startTime));
+        return labels;
+    }
+
+    //Value nodes are shared per column rather than per upload. Only a uniqueness constraint on the value makes concurrent
+    //MERGEs safe, and once it exists per row nodes of the same value would violate it, so the constraint decides.
+    private final List<String> sharedLabels(final List<String> labels){
+        final List<String> res = new ArrayList<>(labels.size());
+        for(final String label : labels){
+            if (indexManager.isUnique(label, "value")){
+                res.add(label);
+            }
+        }
+        return res;
+    }
+
+    //Reversed copies are decided per column rather than per upload, a column searched by suffix needs them on every
+    //value. The query reads the marks itself, so a batch, or its retry, that starts after a column was marked always
+    //writes them, however stale the marks this instance knows are.
+    private final String bulkInsertQuery(final List<String> labels, final List<String> sharedLabels){
+        //The query text only depends on the set of destination labels, so neo4j can reuse the cached plan for every batch of an upload
+        return bulkInsertQueries.computeIfAbsent(List.of(sharedLabels, labels), key -> {
+            final List<String> lbls = labels;
+            final StringBuilder query = new StringBuilder(256 + lbls.size() * 96);
+            //Writers commit concurrently, so never move the counter backwards
+            query.append("MATCH (upload:Upload {name:$uploadName})").append('\n');
+            query.append("WITH upload, upload.processed < $uploadProcessed AS advance").append('\n');
+            query.append("SET upload.processed=CASE WHEN advance THEN $uploadProcessed ELSE upload.processed END, upload.checkpointOffset=CASE WHEN advance THEN $checkpointOffset ELSE upload.checkpointOffset END, upload.batchSize=$batchSize, upload.outOf=$outOf").append('\n');
+            query.append("WITH upload OPTIONAL MATCH (mark:ReversedColumn) WHERE mark.name IN $labels").append('\n');
+            query.append("WITH upload, collect(mark.name) AS reversedLabels UNWIND $rows AS row").append('\n');
+            //Rows of a batch committed again are already there, the constraint on 'rowId' rejects a concurrent duplicate
+            query.append("OPTIONAL MATCH (existing:Row {rowId:row.rowId})").append('\n');
+            query.append("WITH upload, reversedLabels, row WHERE existing IS NULL").append('\n');
+            query.append("CREATE (upload)-[:OWNS]->(r:Row {rowId:row.rowId})").append('\n');
+            for (int i = 0; i < lbls.size(); i++) {
+                query.append("FOREACH (value IN coalesce(row.v").append(i).append(", []) | ");
+                //A null property is not stored, so unmarked columns get no copy
+                final String reversed = "CASE WHEN $labels[" + i + "] IN reversedLabels THEN reverse(value) END";
+                if (sharedLabels.contains(lbls.get(i))){
+                    //One node per (column, value), rows link to it. The uniqueness constraint makes concurrent MERGEs safe.
+                    query.append("MERGE (v:").append(lbls.get(i)).append(" {value:value}) ");
+                    query.append("ON CREATE SET v.reversed=").append(reversed).append(' ');
+                    query.append("CREATE (r)-[:OWNS]->(v))");
+                }else{
+                    query.append("CREATE (r)-[:OWNS]->(:").append(lbls.get(i)).append(" {value:value, reversed:").append(reversed).append("}))");
+                }
+                query.append('\n');
+            }
+            return query.toString();
+        });
     }
 
     public final void addRecord(final UploadDescriptor upload,
@@ -113,15 +204,17 @@ public class UploadRepository {
 
     public final UploadDescriptor createUpload(final String uploadName,
                                                final List<UploadMapping> mappings,
-                                               final CsvUtil.CsvIterator iterator){
-        final String query = "CREATE (u:Upload {name: $name, timeStamp: $timeStamp, mappings: $mappings, status: $status, processed: $processed, outOf: $outOf});";
+                                               final CsvUtil.CsvIterator iterator,
+                                               final boolean sharedValues){
+        final String query = "CREATE (u:Upload {name: $name, timeStamp: $timeStamp, mappings: $mappings, status: $status, processed: $processed, outOf: $outOf, sharedValues: $sharedValues});";
         try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
             session.executeWrite(tx-> tx.run(query, Map.of("name", uploadName,
                     "timeStamp", iterator.timeStamp(),
                     "mappings", JSON.toJson(mappings),
                     "status", UploadDescriptor.Status.PROCESSING.toString(),
                     "processed", iterator.getCurrentRow(),
-                    "outOf", iterator.getTotalRows())).consume());
+                    "outOf", iterator.getTotalRows(),
+                    "sharedValues", sharedValues)).consume());
         }catch (final Throwable cause){
             logger.error("Failed to create upload descriptor.", cause);
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to create upload descriptor.", cause);
@@ -135,7 +228,33 @@ public class UploadRepository {
         }catch (final Throwable cause){
             logger.error("Failed to complete upload with error. Query: {}. Cause:", query, cause);
         }
+        //The rows committed before the failure stay searchable
+        searchCache.invalidate();
     }
+    //Deletes the rows of the upload and the value nodes no other row owns, in batches. The descriptor stays.
+    public final void deleteRows(final UploadDescriptor upload){
+        final String query = """
+                MATCH (:Upload {name:$name})-[:OWNS]->(r:Row)
+                CALL {
+                    WITH r
+                    OPTIONAL MATCH (r)-[:OWNS]->(v)
+                    WHERE COUNT { (v)<-[:OWNS]-(:Row) } = 1
+                    DETACH DELETE v
+                    WITH DISTINCT r
+                    DETACH DELETE r
+                } IN TRANSACTIONS OF 1000 ROWS;
+                """;
+        try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
+            //CALL IN TRANSACTIONS only runs in an auto-commit transaction
+            session.run(query, Map.of("name", upload.name)).consume();
+        }catch (final Throwable cause){
+            logger.error("Failed to delete rows of upload. Query: {}. Cause:", query, cause);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to delete rows of upload.", cause);
+        }finally {
+            searchCache.invalidate();
+        }
+    }
+
     public final void completeUploadWithSuccess(final UploadDescriptor upload){
         final String query = "MATCH (u:Upload {name:$name}) SET u.status=$status;";
         try (final var session = neo4jManager.getDriver().session(SessionConfig.builder().withDatabase(neo4jManager.getDatabase()).build())) {
@@ -143,6 +262,7 @@ public class UploadRepository {
         }catch (final Throwable cause){
             logger.error("Failed to complete upload. Query: {}. Cause:", query, cause);
         }
+        searchCache.invalidate();
     }
 
     public final List<UploadDescriptor> listUnfinishedUploads(){
@@ -193,6 +313,9 @@ public class UploadRepository {
                 v.get("outOf").asLong(),
                 v.get("timeStamp").asLong(),
                 JSON.fromJson(v.get("mappings").asString(), UploadMapping.UploadMappingList.class),
-                UploadDescriptor.Status.valueOf(v.get("status").asString()));
+                UploadDescriptor.Status.valueOf(v.get("status").asString()),
+                v.get("batchSize").isNull() ? 0 : v.get("batchSize").asInt(),
+                v.get("checkpointOffset").isNull() ? 0 : v.get("checkpointOffset").asLong(),
+                !v.get("sharedValues").isNull() && v.get("sharedValues").asBoolean());
     }
 }
@@ -0,0 +1,175 @@
+package com.dataprocessor.server.repositories.columnar;
+
+import com.dataprocessor.server.repositories.SearchRepository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.*;
+
+//One column: a dictionary of its distinct values, a posting list of row ids per value and the (row, value id) cells
+//in row order, memory-mapped, so the values of a row are found by binary search. Postings are rebuilt from the cells on open.
+//Writes go add() -> flush() -> publish(), or rollback() to the last published cell if the batch does not commit.
+final class ColumnStore implements Closeable {
+    private static final int CELL = 12;
+
+    private final String name;
+    private final StringLog values;
+    private final TreeMap<String, Integer> dictionary = new TreeMap<>();
+    private final List<Postings> postings = new ArrayList<>(1024);
+    private final MappedLog cells;
+    private ByteBuffer pendingCells = ByteBuffer.allocate(CELL * 1024);
+    //Cells covered by committed batches
+    private long publishedCells;
+
+    //Cells of rows past 'committedRows' belong to a batch that never committed and are dropped.
+    ColumnStore(final String name, final Path values, final Path cells, final long committedRows) throws IOException {
+        this.name = name;
+        this.values = new StringLog(values);
+        this.cells = new MappedLog(cells, CELL);
+        long committedCells = this.cells.size();
+        while (committedCells > 0 && this.cells.getLong(committedCells - 1, 0) >= committedRows){
+            committedCells--;
+        }
+        if (committedCells < this.cells.size()){
+            this.cells.truncate(committedCells);
+        }
+        this.publishedCells = committedCells;
+        for (int id = 0; id < this.values.size(); id++) {
+            dictionary.put(this.values.get(id), id);
+            postings.add(new Postings());
+        }
+        for (long i = 0; i < this.cells.size(); i++) {
+            postings.get(this.cells.getInt(i, 8)).add(this.cells.getLong(i, 0));
+        }
+    }
+
+    final String getName(){
+        return name;
+    }
+
+    //Stages a cell, written by flush(). Rows must be added in increasing order.
+    final void add(final long row, final String value){
+        Integer id = dictionary.get(value);
+        if (id == null){
+            id = values.add(value);
+            dictionary.put(value, id);
+            postings.add(new Postings());
+        }
+        if (pendingCells.remaining() < CELL){
+            pendingCells = ByteBuffer.allocate(pendingCells.capacity() * 2).put(pendingCells.flip());
+        }
+        pendingCells.putLong(row).putInt(id);
+    }
+
+    //Persists new values before the cells referring to them. The cells stay invisible to searches until publish().
+    final void flush() throws IOException {
+        values.flush();
+        cells.append(pendingCells.duplicate().flip());
+    }
+
+    //Called once the batch committed, adds its cells to the postings.
+    final void publish(){
+        final ByteBuffer published = pendingCells.flip();
+        while (published.hasRemaining()){
+            final long row = published.getLong();
+            postings.get(published.getInt()).add(row);
+        }
+        pendingCells.clear();
+        publishedCells = cells.size();
+    }
+
+    //Drops the cells of the batch, flushed or not. Flushed new values stay, unreferenced.
+    final void rollback() throws IOException {
+        for(final String value : values.rollback()){
+            dictionary.remove(value);
+            postings.removeLast();
+        }
+        cells.truncate(publishedCells);
+        pendingCells.clear();
+    }
+
+    //Ids of the values the query matches. Exact and prefix queries use the sorted dictionary, the others scan it.
+    final List<Integer> lookup(final SearchRepository.SearchQuery query){
+        switch (query.queryType){
+            case MATCHES -> {
+                final Integer id = dictionary.get(query.query);
+                return id == null ? List.of() : List.of(id);
+            }
+            case STARTS_WITH -> {
+                return new ArrayList<>(dictionary.subMap(query.query, true, query.query + Character.MAX_VALUE, true).values());
+            }
+            default -> {
+                final List<Integer> res = new ArrayList<>(64);
+                for (int id = 0; id < values.size(); id++) {
+                    if (query.test(values.get(id))){
+                        res.add(id);
+                    }
+                }
+                return res;
+            }
+        }
+    }
+
+    final Integer idOf(final String value){
+        return dictionary.get(value);
+    }
+
+    final String valueOf(final int id){
+        return values.get(id);
+    }
+
+    final Postings postingsOf(final int id){
+        return postings.get(id);
+    }
+
+    //Distinct values of the row, in the order they were written.
+    final List<String> valuesOf(final long row){
+        final List<String> res = new ArrayList<>(2);
+        long low = 0;
+        long high = cells.size();
+        while (low < high){
+            final long mid = (low + high) >>> 1;
+            if (cells.getLong(mid, 0) < row){
+                low = mid + 1;
+            }else{
+                high = mid;
+            }
+        }
+        for (long i = low; i < cells.size() && cells.getLong(i, 0) == row; i++) {
+            final String value = values.get(cells.getInt(i, 8));
+            if (!res.contains(value)){
+                res.add(value);
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public final void close() throws IOException {
+        values.close();
+        cells.close();
+    }
+
+    //Row ids owning one value, in increasing order.
+    static final class Postings{
+        private long[] rows = new long[2];
+        private int size;
+
+        private final void add(final long row){
+            if (size == rows.length){
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = row;
+        }
+
+        final int size(){
+            return size;
+        }
+
+        final long get(final int index){
+            return rows[index];
+        }
+    }
+}
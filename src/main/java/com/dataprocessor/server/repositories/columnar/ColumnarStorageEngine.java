@@ -0,0 +1,401 @@
+package com.dataprocessor.server.repositories.columnar;
+
+import com.dataprocessor.server.entities.LogicalPredicate;
+import com.dataprocessor.server.entities.UploadDescriptor;
+import com.dataprocessor.server.repositories.SearchCache;
+import com.dataprocessor.server.repositories.SearchRepository;
+import com.dataprocessor.server.repositories.StorageEngine;
+import com.dataprocessor.server.repositories.UploadRepository;
+import com.dataprocessor.server.utils.ListUtils;
+import com.dataprocessor.server.utils.tuples.Tuple2;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+//In-process engine for single node deployments: rows are dense sequential ids, 'rows.bin' maps each to its upload and
+//every column is a ColumnStore. Writes are serialized, searches run concurrently with each other.
+//A batch commits when its entry is appended to 'batches.bin', with the upload's checkpoint: cells and rows written
+//past the last entry belong to a batch that failed or was interrupted and are dropped, so a retried or resumed batch
+//never duplicates rows. 'sources.bin' holds the source row number of each row, so a batch committed again after its
+//entry was appended, e.g. by a resume from an older checkpoint, skips the rows already stored. Deleted uploads are listed in 'deleted.log' and their rows skipped by every read.
+@Service
+@ConditionalOnProperty(name = "storage.engine", havingValue = "columnar")
+public final class ColumnarStorageEngine implements StorageEngine {
+    private static final String CELLS = ".cells";
+    private static final String VALUES = ".values";
+    //Upload id (int), processed rows (long), checkpoint offset (long) and the row count after the batch (long)
+    private static final int BATCH = 28;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final UploadRepository uploadRepository;
+    private final SearchCache searchCache;
+    private final Path directory;
+    private final Map<String, ColumnStore> columns = new ConcurrentHashMap<>(64);
+    private final Map<String, Integer> uploadIds = new HashMap<>(64);
+    //Latest committed checkpoint of each upload id, as (processed, checkpoint offset)
+    private final Map<Integer, Tuple2<Long, Long>> checkpoints = new HashMap<>(64);
+    private final Set<Integer> deletedUploads = new HashSet<>(16);
+    //Source row numbers stored for each upload id
+    private final Map<Integer, RowRanges> storedRows = new HashMap<>(64);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private StringLog uploads;
+    private StringLog deleted;
+    //Upload id of every row, indexed by row id
+    private MappedLog rows;
+    private MappedLog sources;
+    private MappedLog batches;
+
+    @Autowired
+    public ColumnarStorageEngine(final UploadRepository uploadRepository,
+                                 final SearchCache searchCache,
+                                 @Value("${storage.columnar.directory:${java.io.tmpdir}/columnar}") final String directory){
+        this.uploadRepository = uploadRepository;
+        this.searchCache = searchCache;
+        this.directory = Path.of(directory);
+    }
+
+    @PostConstruct
+    final void open() throws IOException {
+        Files.createDirectories(directory);
+        uploads = new StringLog(directory.resolve("uploads.log"));
+        for (int id = 0; id < uploads.size(); id++) {
+            uploadIds.put(uploads.get(id), id);
+        }
+        deleted = new StringLog(directory.resolve("deleted.log"));
+        for (int i = 0; i < deleted.size(); i++) {
+            final Integer id = uploadIds.get(deleted.get(i));
+            if (id != null){
+                deletedUploads.add(id);
+            }
+        }
+        batches = new MappedLog(directory.resolve("batches.bin"), BATCH);
+        for (long i = 0; i < batches.size(); i++) {
+            final long processed = batches.getLong(i, 4);
+            if (processed >= 0){
+                checkpoints.merge(batches.getInt(i, 0), new Tuple2<>(processed, batches.getLong(i, 12)), (a, b) -> a.v1 >= b.v1 ? a : b);
+            }
+        }
+        final long committedRows = batches.size() == 0 ? 0 : batches.getLong(batches.size() - 1, 20);
+        rows = new MappedLog(directory.resolve("rows.bin"), 4);
+        if (rows.size() > committedRows){
+            rows.truncate(committedRows);
+        }
+        sources = new MappedLog(directory.resolve("sources.bin"), 8);
+        if (sources.size() > committedRows){
+            sources.truncate(committedRows);
+        }
+        //Stores written before source rows were kept have none for their rows
+        if (sources.size() < committedRows){
+            final ByteBuffer unknown = ByteBuffer.allocate((int) (committedRows - sources.size()) * 8);
+            while (unknown.hasRemaining()){
+                unknown.putLong(-1);
+            }
+            sources.append(unknown.flip());
+        }
+        for (long row = 0; row < committedRows; row++) {
+            final long source = sources.getLong(row, 0);
+            if (source >= 0){
+                storedRows.computeIfAbsent(rows.getInt(row, 0), id -> new RowRanges()).add(source);
+            }
+        }
+        try (final Stream<Path> files = Files.list(directory)){
+            for(final Path file : files.filter(f -> f.getFileName().toString().endsWith(CELLS)).toList()){
+                final String fileName = file.getFileName().toString();
+                final String column = URLDecoder.decode(fileName.substring(0, fileName.length() - CELLS.length()), StandardCharsets.UTF_8);
+                columns.put(column, openColumn(column, committedRows));
+            }
+        }
+        logger.info("Columnar storage opened at '{}'. Rows: {}, columns: {}.", directory, rows.size(), columns.size());
+    }
+
+    private final ColumnStore openColumn(final String column, final long committedRows) throws IOException {
+        final String fileName = URLEncoder.encode(column, StandardCharsets.UTF_8);
+        return new ColumnStore(column, directory.resolve(fileName + VALUES), directory.resolve(fileName + CELLS), committedRows);
+    }
+
+    @Override
+    public final void writeRows(final UploadDescriptor upload,
+                                final long processed,
+                                final long checkpointOffset,
+                                final long totalRows,
+                                final List<Long> sourceRows,
+                                final List<List<Tuple2<String, String>>> records){
+        if (records.isEmpty() && processed < 0)
+            return;
+        lock.writeLock().lock();
+        final Set<ColumnStore> touched = new LinkedHashSet<>(16);
+        final long firstRow = rows.size();
+        final long committedBatches = batches.size();
+        try {
+            Integer uploadId = uploadIds.get(upload.name);
+            if (uploadId == null){
+                uploadId = uploads.add(upload.name);
+                uploads.flush();
+                uploadIds.put(upload.name, uploadId);
+            }
+            final RowRanges stored = storedRows.computeIfAbsent(uploadId, id -> new RowRanges());
+            long row = firstRow;
+            final ByteBuffer rowEntries = ByteBuffer.allocate(records.size() * 4);
+            final ByteBuffer sourceEntries = ByteBuffer.allocate(records.size() * 8);
+            for (int i = 0; i < records.size(); i++) {
+                if (stored.contains(sourceRows.get(i)))
+                    continue;
+                rowEntries.putInt(uploadId);
+                sourceEntries.putLong(sourceRows.get(i));
+                for(final Tuple2<String, String> cell : records.get(i)){
+                    ColumnStore store = columns.get(cell.v1);
+                    if (store == null){
+                        store = openColumn(cell.v1, firstRow);
+                        columns.put(cell.v1, store);
+                    }
+                    store.add(row, cell.v2);
+                    touched.add(store);
+                }
+                row++;
+            }
+            for(final ColumnStore store : touched){
+                store.flush();
+            }
+            if (row > firstRow){
+                rows.append(rowEntries.flip());
+                sources.append(sourceEntries.flip());
+            }
+            //The commit point
+            batches.append(ByteBuffer.allocate(BATCH).putInt(uploadId).putLong(processed).putLong(checkpointOffset).putLong(row).flip());
+            for(final ColumnStore store : touched){
+                store.publish();
+            }
+            if (processed >= 0){
+                checkpoints.merge(uploadId, new Tuple2<>(processed, checkpointOffset), (a, b) -> a.v1 >= b.v1 ? a : b);
+            }
+            for(final Long sourceRow : sourceRows){
+                stored.add(sourceRow);
+            }
+        }catch (final Throwable cause){
+            try{batches.truncate(committedBatches);}catch (final Throwable ignored){}
+            try{rows.truncate(firstRow);}catch (final Throwable ignored){}
+            try{sources.truncate(firstRow);}catch (final Throwable ignored){}
+            for(final ColumnStore store : touched){
+                try{store.rollback();}catch (final Throwable ignored){}
+            }
+            logger.debug("Failed to write rows of '{}'.", upload.name, cause);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to add records.", cause);
+        }finally {
+            lock.writeLock().unlock();
+        }
+        //Kept for the upload's progress, resumes prefer checkpointOf() when it is further
+        if (processed >= 0){
+            uploadRepository.updateProcessed(upload, processed, checkpointOffset, totalRows);
+        }
+    }
+
+    @Override
+    public final void deleteRows(final UploadDescriptor upload){
+        lock.writeLock().lock();
+        try {
+            final Integer uploadId = uploadIds.get(upload.name);
+            if (uploadId == null || deletedUploads.contains(uploadId))
+                return;
+            deleted.add(upload.name);
+            deleted.flush();
+            deletedUploads.add(uploadId);
+            checkpoints.remove(uploadId);
+        }catch (final Throwable cause){
+            try{deleted.rollback();}catch (final Throwable ignored){}
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to delete rows of upload.", cause);
+        }finally {
+            lock.writeLock().unlock();
+        }
+        searchCache.invalidate();
+    }
+
+    private final boolean isDeleted(final long row){
+        return !deletedUploads.isEmpty() && deletedUploads.contains(rows.getInt(row, 0));
+    }
+
+    @Override
+    public final Tuple2<Long, Long> checkpointOf(final String uploadName){
+        lock.readLock().lock();
+        try {
+            final Integer uploadId = uploadIds.get(uploadName);
+            return uploadId == null ? null : checkpoints.get(uploadId);
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public final List<String> findRows(final List<SearchRepository.SearchQuery> queries,
+                                       final LogicalPredicate predicate,
+                                       final List<String> limitByUploads,
+                                       final String after,
+                                       final int skip,
+                                       final int limit){
+        final long afterRow;
+        try {
+            afterRow = after == null || after.isEmpty() ? -1 : Long.parseLong(after);
+        }catch (final NumberFormatException cause){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown row id '" + after + "'.", cause);
+        }
+        lock.readLock().lock();
+        try {
+            Set<Integer> uploadFilter = null;
+            if (!limitByUploads.isEmpty()){
+                uploadFilter = new HashSet<>(limitByUploads.size() * 2);
+                for(final String upload : limitByUploads){
+                    final Integer id = uploadIds.get(upload);
+                    if (id != null){
+                        uploadFilter.add(id);
+                    }
+                }
+            }
+            //Like the graph search, every query applies to each value of the searched columns
+            final TreeSet<Long> matched = new TreeSet<>();
+            for(final String column : queries.stream().map(q -> q.node).distinct().toList()){
+                final ColumnStore store = columns.get(column);
+                if (store == null)
+                    continue;
+                for(final int id : candidates(store, queries, predicate)){
+                    final ColumnStore.Postings postings = store.postingsOf(id);
+                    for (int i = 0; i < postings.size(); i++) {
+                        matched.add(postings.get(i));
+                    }
+                }
+            }
+            final List<String> res = new ArrayList<>(Math.min(limit, matched.size()));
+            int skipped = 0;
+            for(final Long row : matched.tailSet(afterRow, false)){
+                if (res.size() >= limit)
+                    break;
+                if (uploadFilter != null && !uploadFilter.contains(rows.getInt(row, 0)))
+                    continue;
+                if (isDeleted(row))
+                    continue;
+                if (skipped++ < skip)
+                    continue;
+                res.add(Long.toString(row));
+            }
+            return res;
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static final List<Integer> candidates(final ColumnStore store,
+                                                  final List<SearchRepository.SearchQuery> queries,
+                                                  final LogicalPredicate predicate){
+        if (predicate == LogicalPredicate.OR){
+            final Set<Integer> res = new LinkedHashSet<>(64);
+            for(final SearchRepository.SearchQuery query : queries){
+                res.addAll(store.lookup(query));
+            }
+            return new ArrayList<>(res);
+        }
+        final List<Integer> res = new ArrayList<>(64);
+        for(final int id : store.lookup(queries.getFirst())){
+            final String value = store.valueOf(id);
+            if (queries.stream().allMatch(q -> q.test(value))){
+                res.add(id);
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public final List<Map<String, List<String>>> fetchRows(final List<String> rowIds){
+        lock.readLock().lock();
+        try {
+            final List<Map<String, List<String>>> res = new ArrayList<>(rowIds.size());
+            for(final String rowId : rowIds){
+                final long row;
+                try {
+                    row = Long.parseLong(rowId);
+                }catch (final NumberFormatException ignored){
+                    continue;
+                }
+                if (row < 0 || row >= rows.size() || isDeleted(row))
+                    continue;
+                final Map<String, List<String>> values = new HashMap<>(columns.size() * 2);
+                values.put("_id", ListUtils.listOfString(rowId));
+                for(final ColumnStore store : columns.values()){
+                    final List<String> columnValues = store.valuesOf(row);
+                    if (!columnValues.isEmpty()){
+                        values.put(store.getName(), columnValues);
+                    }
+                }
+                res.add(values);
+            }
+            return res;
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public final List<String> expandJoin(final String column, final List<String> values, final int maxRows){
+        lock.readLock().lock();
+        try {
+            final ColumnStore store = columns.get(column);
+            if (store == null)
+                return List.of();
+            final TreeSet<Long> joined = new TreeSet<>();
+            for(final String value : values){
+                final Integer id = store.idOf(value);
+                if (id == null)
+                    continue;
+                final ColumnStore.Postings postings = store.postingsOf(id);
+                for (int i = 0; i < postings.size(); i++) {
+                    if (!isDeleted(postings.get(i))){
+                        joined.add(postings.get(i));
+                    }
+                }
+            }
+            return joined.stream().limit(maxRows).map(row -> Long.toString(row)).toList();
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public final List<String> listColumns(){
+        return columns.keySet().stream().sorted(String::compareTo).toList();
+    }
+
+    @PreDestroy
+    final void close(){
+        lock.writeLock().lock();
+        try {
+            for(final ColumnStore store : columns.values()){
+                store.close();
+            }
+            rows.close();
+            sources.close();
+            batches.close();
+            uploads.close();
+            deleted.close();
+        }catch (final Throwable cause){
+            logger.error("Failed to close columnar storage.", cause);
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
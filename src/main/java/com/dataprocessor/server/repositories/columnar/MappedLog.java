@@ -0,0 +1,99 @@
+package com.dataprocessor.server.repositories.columnar;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+//Append-only file of fixed size entries, read through memory-mapped windows. Entries never straddle a window.
+//Reads take no lock: remapping publishes a new copy of the window array, readers keep the copy they loaded.
+final class MappedLog implements Closeable {
+    private static final int ENTRIES_PER_WINDOW = 1 << 26;
+    private static final MappedByteBuffer[] NO_WINDOWS = new MappedByteBuffer[0];
+
+    private final FileChannel channel;
+    private final int entrySize;
+    private volatile MappedByteBuffer[] windows = NO_WINDOWS;
+    private volatile long entries;
+
+    MappedLog(final Path path, final int entrySize) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.entrySize = entrySize;
+        //A torn write leaves a partial entry at the end
+        this.entries = channel.size() / entrySize;
+        channel.truncate(entries * entrySize);
+    }
+
+    final long size(){
+        return entries;
+    }
+
+    //'buffer' holds whole entries. Callers serialize appends.
+    final void append(final ByteBuffer buffer) throws IOException {
+        final long count = buffer.remaining() / entrySize;
+        long position = entries * entrySize;
+        while (buffer.hasRemaining()){
+            position += channel.write(buffer, position);
+        }
+        channel.force(false);
+        entries += count;
+    }
+
+    //Drops the entries after 'size', e.g. those of a failed write.
+    final synchronized void truncate(final long size) throws IOException {
+        channel.truncate(size * entrySize);
+        entries = size;
+        windows = NO_WINDOWS;
+    }
+
+    final long getLong(final long entry, final int offset){
+        return window(entry).getLong(position(entry) + offset);
+    }
+
+    final int getInt(final long entry, final int offset){
+        return window(entry).getInt(position(entry) + offset);
+    }
+
+    private final int position(final long entry){
+        return (int) (entry % ENTRIES_PER_WINDOW) * entrySize;
+    }
+
+    private final MappedByteBuffer window(final long entry){
+        final int index = (int) (entry / ENTRIES_PER_WINDOW);
+        final long needed = (long) position(entry) + entrySize;
+        final MappedByteBuffer[] current = windows;
+        if (index < current.length && current[index] != null && current[index].capacity() >= needed)
+            return current[index];
+        return remap(index, needed);
+    }
+
+    //Maps the window again once the file grew past its mapped length, unless a concurrent reader already did.
+    private final synchronized MappedByteBuffer remap(final int index, final long needed){
+        MappedByteBuffer[] current = windows;
+        if (index < current.length && current[index] != null && current[index].capacity() >= needed)
+            return current[index];
+        final long windowSize = (long) ENTRIES_PER_WINDOW * entrySize;
+        final long start = index * windowSize;
+        final MappedByteBuffer window;
+        try {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, entries * entrySize - start));
+        }catch (final IOException cause){
+            throw new UncheckedIOException(cause);
+        }
+        current = Arrays.copyOf(current, Math.max(current.length, index + 1));
+        current[index] = window;
+        windows = current;
+        return window;
+    }
+
+    @Override
+    public final void close() throws IOException {
+        windows = NO_WINDOWS;
+        channel.close();
+    }
+}
@@ -0,0 +1,30 @@
+package com.dataprocessor.server.repositories.columnar;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+//Set of row numbers kept as disjoint [start, end) ranges, batches of an upload mostly extend the last one.
+final class RowRanges {
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+    final boolean contains(final long row){
+        final Map.Entry<Long, Long> range = ranges.floorEntry(row);
+        return range != null && row < range.getValue();
+    }
+
+    final void add(final long row){
+        if (contains(row))
+            return;
+        long start = row;
+        long end = row + 1;
+        final Map.Entry<Long, Long> before = ranges.floorEntry(row);
+        if (before != null && before.getValue() == row){
+            start = before.getKey();
+        }
+        final Long after = ranges.remove(end);
+        if (after != null){
+            end = after;
+        }
+        ranges.put(start, end);
+    }
+}
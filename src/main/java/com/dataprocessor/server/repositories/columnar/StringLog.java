@@ -0,0 +1,86 @@
+package com.dataprocessor.server.repositories.columnar;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+//Append-only file of length prefixed UTF-8 strings. The position of a string is its id.
+final class StringLog implements Closeable {
+    private final FileChannel channel;
+    private final List<String> strings = new ArrayList<>(1024);
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(4096);
+    private long persistedBytes;
+    private int persistedCount;
+
+    StringLog(final Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0)), 1 << 16));
+        try {
+            for (;;){
+                final int length = in.readInt();
+                final byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                strings.add(new String(bytes, StandardCharsets.UTF_8));
+                persistedBytes += 4 + length;
+            }
+        }catch (final EOFException ignored){
+            //A torn write leaves a partial string at the end
+        }
+        channel.truncate(persistedBytes);
+        persistedCount = strings.size();
+    }
+
+    final int size(){
+        return strings.size();
+    }
+
+    final String get(final int id){
+        return strings.get(id);
+    }
+
+    //Returns the id of the new string, persisted by the next flush().
+    final int add(final String string){
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        pending.write((bytes.length >>> 24) & 0xFF);
+        pending.write((bytes.length >>> 16) & 0xFF);
+        pending.write((bytes.length >>> 8) & 0xFF);
+        pending.write(bytes.length & 0xFF);
+        pending.writeBytes(bytes);
+        strings.add(string);
+        return strings.size() - 1;
+    }
+
+    final void flush() throws IOException {
+        if (pending.size() == 0)
+            return;
+        final ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+        long position = persistedBytes;
+        while (buffer.hasRemaining()){
+            position += channel.write(buffer, position);
+        }
+        channel.force(false);
+        persistedBytes = position;
+        persistedCount = strings.size();
+        pending.reset();
+    }
+
+    //Forgets the strings added since the last successful flush() and returns them.
+    final List<String> rollback() throws IOException {
+        final List<String> dropped = new ArrayList<>(strings.subList(persistedCount, strings.size()));
+        strings.subList(persistedCount, strings.size()).clear();
+        pending.reset();
+        channel.truncate(persistedBytes);
+        return dropped;
+    }
+
+    @Override
+    public final void close() throws IOException {
+        channel.close();
+    }
+}
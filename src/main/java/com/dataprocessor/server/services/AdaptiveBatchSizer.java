@@ -0,0 +1,58 @@
+package com.dataprocessor.server.services;
+
+//Steers the number of rows per transaction towards a target commit latency, bounded by a cap on values per transaction.
+public final class AdaptiveBatchSizer {
+    private static final double SMOOTHING = 0.3;
+    private static final double MAX_GROWTH = 2.0;
+    private static final double MAX_SHRINK = 0.5;
+
+    private final long targetLatencyMillis;
+    private final int minRows;
+    private final int maxRows;
+    private final int maxValues;
+    private volatile int batchSize;
+    private double millisPerValue = -1;
+    private double valuesPerRow;
+
+    public AdaptiveBatchSizer(final int initialRows,
+                              final int minRows,
+                              final int maxRows,
+                              final int maxValues,
+                              final long targetLatencyMillis,
+                              final int columnsCount){
+        this.minRows = Math.max(1, minRows);
+        this.maxRows = Math.max(this.minRows, maxRows);
+        this.maxValues = Math.max(1, maxValues);
+        this.targetLatencyMillis = Math.max(1, targetLatencyMillis);
+        this.valuesPerRow = Math.max(1, columnsCount);
+        this.batchSize = clamp(initialRows);
+    }
+
+    public final int getBatchSize(){
+        return batchSize;
+    }
+
+    public synchronized final void onCommit(final int rows, final int values, final long latencyMillis){
+        if (rows <= 0 || values <= 0)
+            return;
+
+        final double observedPerValue = Math.max(0.001, (double) latencyMillis / values);
+        final double observedValuesPerRow = (double) values / rows;
+        if (millisPerValue < 0){
+            millisPerValue = observedPerValue;
+            valuesPerRow = observedValuesPerRow;
+        }else{
+            millisPerValue = millisPerValue + SMOOTHING * (observedPerValue - millisPerValue);
+            valuesPerRow = valuesPerRow + SMOOTHING * (observedValuesPerRow - valuesPerRow);
+        }
+        final double desiredRows = targetLatencyMillis / millisPerValue / valuesPerRow;
+        final int current = batchSize;
+        final double bounded = Math.min(current * MAX_GROWTH, Math.max(current * MAX_SHRINK, desiredRows));
+        batchSize = clamp((int) bounded);
+    }
+
+    private final int clamp(final int rows){
+        final int memoryBound = (int) Math.max(1, maxValues / Math.max(1.0, valuesPerRow));
+        return Math.max(minRows, Math.min(Math.min(maxRows, memoryBound), rows));
+    }
+}
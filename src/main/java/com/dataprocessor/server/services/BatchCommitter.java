@@ -0,0 +1,212 @@
+package com.dataprocessor.server.services;
+
+import com.dataprocessor.server.entities.DeadLetter;
+import com.dataprocessor.server.entities.UploadDescriptor;
+import com.dataprocessor.server.repositories.DeadLettersRepository;
+import com.dataprocessor.server.repositories.SearchCache;
+import com.dataprocessor.server.repositories.StorageEngine;
+import com.dataprocessor.server.utils.tuples.Tuple2;
+import org.neo4j.driver.exceptions.ClientException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+//Commits batches with retries. A batch the database rejects is split in halves until the failing rows are isolated,
+//those go to the dead letter store instead of being dropped. A batch that fails because the database is not available
+//is not split, the upload is suspended and resumed later from its checkpoint.
+@Service
+public final class BatchCommitter {
+    private static final int REPLAY_BATCH = 100;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final StorageEngine storage;
+    private final DeadLettersRepository deadLetters;
+    private final SearchCache searchCache;
+    private final IngestionMetrics metrics;
+    private final int attempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    @Autowired
+    public BatchCommitter(final StorageEngine storage,
+                          final DeadLettersRepository deadLetters,
+                          final SearchCache searchCache,
+                          final IngestionMetrics metrics,
+                          @Value("${ingestion.retry.attempts:3}") final int attempts,
+                          @Value("${ingestion.retry.initialBackoffMs:200}") final long initialBackoffMillis,
+                          @Value("${ingestion.retry.maxBackoffMs:5000}") final long maxBackoffMillis){
+        this.storage = storage;
+        this.deadLetters = deadLetters;
+        this.searchCache = searchCache;
+        this.metrics = metrics;
+        this.attempts = Math.max(1, attempts);
+        this.initialBackoffMillis = Math.max(1, initialBackoffMillis);
+        this.maxBackoffMillis = Math.max(this.initialBackoffMillis, maxBackoffMillis);
+    }
+
+    //Returns the number of rows committed, the others were dead lettered. Throws SERVICE_UNAVAILABLE when the failure
+    //is not caused by the rows, and any error when a row can not be dead lettered, so the upload stops rather than
+    //losing rows. In both cases the checkpoint does not move past the batch.
+    public final int commit(final UploadDescriptor upload,
+                            final long processed,
+                            final long checkpointOffset,
+                            final long totalRows,
+                            final long firstRow,
+                            final List<List<Tuple2<String, String>>> records){
+        final List<Long> rows = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            rows.add(firstRow + i);
+        }
+        final Throwable cause = tryCommit(upload, processed, checkpointOffset, totalRows, rows, records);
+        if (cause == null)
+            return records.size();
+        metrics.failedBatch();
+        if (!isClientError(cause))
+            throw unavailable(upload, cause);
+
+        logger.warn("Batch of rows {} to {} of upload '{}' keeps failing, isolating the failing rows.", firstRow, firstRow + records.size(), upload.name);
+        final int committed = isolate(upload, totalRows, rows, records, cause, (row, record, rowCause)->{
+            deadLetters.save(toDeadLetter(upload.name, row, record, rowCause));
+            metrics.deadLettered();
+        });
+        //The halves are committed without progress, so the checkpoint never covers rows that are not handled yet
+        try {
+            storage.writeRows(upload, processed, checkpointOffset, totalRows, List.of(), List.of());
+        }catch (final Throwable checkpointCause){
+            logger.warn("Failed to advance the checkpoint of upload '{}' to row {}.", upload.name, processed, checkpointCause);
+        }
+        return committed;
+    }
+
+    //Commits the dead letters of an upload again and deletes those that succeed. Returns the number of rows committed.
+    public final int replay(final UploadDescriptor upload){
+        final List<String> names = deadLetters.list(upload.name);
+        int replayed = 0;
+        for (int i = 0; i < names.size(); i += REPLAY_BATCH) {
+            final List<Long> rows = new ArrayList<>(REPLAY_BATCH);
+            final List<List<Tuple2<String, String>>> records = new ArrayList<>(REPLAY_BATCH);
+            for(final String name : names.subList(i, Math.min(names.size(), i + REPLAY_BATCH))){
+                final DeadLetter letter = deadLetters.get(name);
+                rows.add(letter.row);
+                records.add(toRecord(letter));
+            }
+            final Set<Long> rejected = new HashSet<>();
+            final Throwable cause = tryCommit(upload, -1, -1, upload.outOf, rows, records);
+            if (cause == null){
+                replayed += records.size();
+            }else if (!isClientError(cause)){
+                throw unavailable(upload, cause);
+            }else{
+                replayed += isolate(upload, upload.outOf, rows, records, cause, (row, record, rowCause) -> rejected.add(row));
+            }
+            for(final Long row : rows){
+                if (!rejected.contains(row)){
+                    deadLetters.delete(upload.name, row);
+                }
+            }
+        }
+        logger.info("Replayed {} of {} dead letters of upload '{}'.", replayed, names.size(), upload.name);
+        if (replayed > 0){
+            searchCache.invalidate();
+        }
+        return replayed;
+    }
+
+    //Commits each half of a failed batch, splitting further the halves that fail. Returns the number of rows committed.
+    private final int isolate(final UploadDescriptor upload,
+                              final long totalRows,
+                              final List<Long> rows,
+                              final List<List<Tuple2<String, String>>> records,
+                              final Throwable cause,
+                              final Rejection rejection){
+        if (records.size() == 1){
+            logger.warn("Row {} of upload '{}' can not be committed.", rows.get(0), upload.name, cause);
+            rejection.reject(rows.get(0), records.get(0), cause);
+            return 0;
+        }
+        final int half = records.size() / 2;
+        int committed = 0;
+        for(final int[] range : new int[][]{{0, half}, {half, records.size()}}){
+            final List<Long> subRows = rows.subList(range[0], range[1]);
+            final List<List<Tuple2<String, String>>> subRecords = records.subList(range[0], range[1]);
+            final Throwable subCause = tryCommit(upload, -1, -1, totalRows, subRows, subRecords);
+            if (subCause != null && !isClientError(subCause))
+                throw unavailable(upload, subCause);
+            committed += subCause == null ? subRecords.size() : isolate(upload, totalRows, subRows, subRecords, subCause, rejection);
+        }
+        return committed;
+    }
+
+    //Returns null once committed, or the last failure. Errors caused by the data itself are not retried.
+    private final Throwable tryCommit(final UploadDescriptor upload,
+                                      final long processed,
+                                      final long checkpointOffset,
+                                      final long totalRows,
+                                      final List<Long> rows,
+                                      final List<List<Tuple2<String, String>>> records){
+        long backoff = initialBackoffMillis;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                storage.writeRows(upload, processed, checkpointOffset, totalRows, rows, records);
+                return null;
+            }catch (final Throwable cause){
+                if (attempt >= attempts || isClientError(cause))
+                    return cause;
+                try {
+                    Thread.sleep(backoff);
+                }catch (final InterruptedException interrupted){
+                    Thread.currentThread().interrupt();
+                    return cause;
+                }
+                backoff = Math.min(maxBackoffMillis, backoff * 2);
+            }
+        }
+    }
+
+    private static final boolean isClientError(final Throwable cause){
+        for(Throwable c = cause; c != null; c = c.getCause()){
+            if (c instanceof ClientException)
+                return true;
+        }
+        return false;
+    }
+
+    private static final ResponseStatusException unavailable(final UploadDescriptor upload, final Throwable cause){
+        return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Storage is not available for upload '" + upload.name + "'.", cause);
+    }
+
+    private static final DeadLetter toDeadLetter(final String upload, final long row, final List<Tuple2<String, String>> record, final Throwable cause){
+        final List<String> columns = new ArrayList<>(record.size());
+        final List<String> values = new ArrayList<>(record.size());
+        for(final Tuple2<String, String> value : record){
+            columns.add(value.v1);
+            values.add(value.v2);
+        }
+        Throwable root = cause;
+        while (root != null && root.getCause() != null){
+            root = root.getCause();
+        }
+        return new DeadLetter(upload, row, columns, values, root == null ? null : root.getMessage(), System.currentTimeMillis());
+    }
+
+    private static final List<Tuple2<String, String>> toRecord(final DeadLetter letter){
+        final List<Tuple2<String, String>> record = new ArrayList<>(letter.columns.size());
+        for (int i = 0; i < letter.columns.size(); i++) {
+            record.add(new Tuple2<>(letter.columns.get(i), letter.values.get(i)));
+        }
+        return record;
+    }
+
+    private static interface Rejection{
+        void reject(long row, List<Tuple2<String, String>> record, Throwable cause);
+    }
+}
@@ -0,0 +1,150 @@
+package com.dataprocessor.server.services;
+
+import com.dataprocessor.server.entities.ImportManifest;
+import com.dataprocessor.server.entities.UploadDescriptor;
+import com.dataprocessor.server.entities.UploadMapping;
+import com.dataprocessor.server.repositories.IndexManager;
+import com.dataprocessor.server.utils.StringUtil;
+import com.dataprocessor.server.utils.TempFileUtil;
+import com.dataprocessor.server.utils.json.JSON;
+import com.dataprocessor.server.utils.tuples.Tuple2;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+//Writes transformed rows as node and relationship files of 'neo4j-admin database import', in the same graph shape
+//UploadRepository.addRecords creates: (Upload)-[:OWNS]->(Row)-[:OWNS]->(:<column> {value[, reversed]}).
+//Labels come from the :LABEL column, so the files are passed to the importer without label prefixes. With shared values
+//every (column, value) is one node that all its rows own, as when ingesting with 'ingestion.sharedValueNodes'.
+public final class ImportFilesWriter implements Closeable {
+    public static final String UPLOADS = "uploads.csv";
+    public static final String ROWS = "rows.csv";
+    public static final String VALUES = "values.csv";
+    public static final String UPLOAD_OWNS = "upload-owns.csv";
+    public static final String ROW_OWNS = "row-owns.csv";
+
+    private final List<UploadMapping> mappings;
+    private final List<String> reversedColumns;
+    private final Map<String, File> files = new LinkedHashMap<>(8);
+    private final CSVPrinter rows;
+    private final CSVPrinter values;
+    private final CSVPrinter uploadOwns;
+    private final CSVPrinter rowOwns;
+    private final String uploadName;
+    private final boolean sharedValues;
+    private long rowsCount;
+    private long valuesCount;
+
+    public ImportFilesWriter(final String uploadName, final List<UploadMapping> mappings, final boolean sharedValues) throws IOException {
+        this.uploadName = uploadName;
+        this.sharedValues = sharedValues;
+        this.mappings = mappings;
+        this.reversedColumns = new ArrayList<>(mappings.size());
+        for(final UploadMapping mapping : mappings){
+            if (mapping.reversed && !reversedColumns.contains(mapping.destinationColumn)){
+                reversedColumns.add(mapping.destinationColumn);
+            }
+        }
+        //IDs are stored as the 'name' and 'rowId' properties, value nodes use ids derived from their row id, or from their
+        //column and value when shared
+        this.rows = open(ROWS, "rowId:ID(Row)", ":LABEL");
+        this.values = open(VALUES, ":ID(Value)", "value", "reversed", ":LABEL");
+        this.uploadOwns = open(UPLOAD_OWNS, ":START_ID(Upload)", ":END_ID(Row)", ":TYPE");
+        this.rowOwns = open(ROW_OWNS, ":START_ID(Row)", ":END_ID(Value)", ":TYPE");
+    }
+
+    public final void write(final List<Tuple2<String, String>> record) throws IOException {
+        final String rowId = StringUtil.rowId(uploadName, rowsCount);
+        rows.printRecord(rowId, "Row");
+        uploadOwns.printRecord(uploadName, rowId, "OWNS");
+        for (int i = 0; i < record.size(); i++) {
+            final Tuple2<String, String> value = record.get(i);
+            //A shared value is written for each row owning it, the importer keeps the first node of an id
+            final String valueId = sharedValues ? StringUtil.valueId(value.v1, value.v2) : rowId + "-" + i;
+            //An empty field is not stored, so only reversed columns get the property
+            values.printRecord(valueId, value.v2, reversedColumns.contains(value.v1) ? StringUtil.reverse(value.v2) : null, value.v1);
+            rowOwns.printRecord(rowId, valueId, "OWNS");
+        }
+        rowsCount++;
+        valuesCount += record.size();
+    }
+
+    //Writes the Upload node, now that the row count is known, and describes the files.
+    public final ImportManifest finish(final long timeStamp) throws IOException {
+        close();
+        final UploadDescriptor upload = new UploadDescriptor(uploadName, rowsCount, rowsCount, timeStamp, mappings, UploadDescriptor.Status.FINISHED, 0, 0, sharedValues);
+        try (final CSVPrinter uploads = open(UPLOADS, "name:ID(Upload)", "timeStamp:long", "mappings", "status", "processed:long", "outOf:long", "sharedValues:boolean", ":LABEL")){
+            uploads.printRecord(upload.name, upload.timeStamp, JSON.toJson(upload.mappings), upload.status.toString(), upload.processed, upload.outOf, upload.sharedValues, "Upload");
+        }
+        final List<String> importArguments = new ArrayList<>(List.of(
+                "--nodes=" + UPLOADS,
+                "--nodes=" + ROWS,
+                "--nodes=" + VALUES,
+                "--relationships=" + UPLOAD_OWNS,
+                "--relationships=" + ROW_OWNS,
+                "--id-type=string",
+                "--multiline-fields=true"));
+        if (sharedValues){
+            importArguments.add("--skip-duplicate-nodes=true");
+        }
+        final List<String> statements = new ArrayList<>(mappings.size() * 2);
+        statements.add("CREATE CONSTRAINT " + IndexManager.ROW_ID_CONSTRAINT + " IF NOT EXISTS FOR (n:Row) REQUIRE n.rowId IS UNIQUE");
+        for(final UploadMapping mapping : mappings){
+            //Writers share the values of a column only once its uniqueness constraint exists, which also indexes them
+            final String constraint = "CREATE CONSTRAINT U" + mapping.destinationColumn + "Value IF NOT EXISTS FOR (n:" + mapping.destinationColumn + ") REQUIRE n.value IS UNIQUE";
+            if (sharedValues && !statements.contains(constraint)){
+                statements.add(constraint);
+            }
+            //Like ingestion, only mappings that ask for it get a TEXT index up front
+            for(final IndexManager.IndexKind kind : mapping.textIndex ? List.of(IndexManager.IndexKind.RANGE, IndexManager.IndexKind.TEXT) : List.of(IndexManager.IndexKind.RANGE)){
+                if (sharedValues && kind == IndexManager.IndexKind.RANGE)
+                    continue;
+                final String index = "CREATE " + kind.type + " INDEX " + kind.indexName(mapping.destinationColumn) + " IF NOT EXISTS FOR (n:" + mapping.destinationColumn + ") ON (n." + kind.property + ")";
+                if (!statements.contains(index)){
+                    statements.add(index);
+                }
+            }
+        }
+        for(final String column : reversedColumns){
+            final IndexManager.IndexKind kind = IndexManager.IndexKind.REVERSED;
+            statements.add("CREATE " + kind.type + " INDEX " + kind.indexName(column) + " IF NOT EXISTS FOR (n:" + column + ") ON (n." + kind.property + ")");
+            //Marks the column's reversed values as complete, so suffix searches use them right away
+            statements.add("MERGE (c:ReversedColumn {name:" + cypherString(column) + "}) SET c.complete=true");
+        }
+        return new ImportManifest(upload, new ArrayList<>(files.keySet()), rowsCount, valuesCount, importArguments, statements);
+    }
+
+    //The statements are run as they are, e.g. with cypher-shell, so values are written as escaped string literals.
+    private static final String cypherString(final String value){
+        return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+
+    //Local files by name, to be moved to their destination.
+    public final Map<String, File> getFiles(){
+        return files;
+    }
+
+    private final CSVPrinter open(final String name, final String... header) throws IOException {
+        final File file = TempFileUtil.createTmpFile(".csv");
+        files.put(name, file);
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+        return new CSVPrinter(writer, CSVFormat.DEFAULT.builder()
+                .setHeader(header)
+                .setRecordSeparator("\n")
+                .build());
+    }
+
+    @Override
+    public final void close() throws IOException {
+        rows.close();
+        values.close();
+        uploadOwns.close();
+        rowOwns.close();
+    }
+}
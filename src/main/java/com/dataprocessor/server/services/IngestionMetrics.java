@@ -0,0 +1,108 @@
+package com.dataprocessor.server.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//Ingestion meters, exposed under /actuator/metrics. Stage timers are recorded per chunk of rows, not per row.
+@Service
+public final class IngestionMetrics {
+    private final MeterRegistry registry;
+    private final Timer parseTimer;
+    private final Timer transformTimer;
+    private final Timer validationTimer;
+    private final Timer commitTimer;
+    private final Counter committedRows;
+    private final Counter rejectedCells;
+    private final Counter failedBatches;
+    private final Counter deadLetteredRows;
+
+    @Autowired
+    public IngestionMetrics(final MeterRegistry registry){
+        this.registry = registry;
+        this.parseTimer = stageTimer("parse");
+        this.transformTimer = stageTimer("transform");
+        this.validationTimer = stageTimer("validation");
+        this.commitTimer = stageTimer("commit");
+        this.committedRows = Counter.builder("ingestion.rows.committed")
+                .description("Rows committed to the graph")
+                .register(registry);
+        this.rejectedCells = Counter.builder("ingestion.cells.rejected")
+                .description("Non blank cells dropped by a validator")
+                .register(registry);
+        this.failedBatches = Counter.builder("ingestion.batches.failed")
+                .description("Batches whose commit failed after retries")
+                .register(registry);
+        this.deadLetteredRows = Counter.builder("ingestion.rows.deadLettered")
+                .description("Rows that could not be committed on their own, moved to the dead letter store")
+                .register(registry);
+    }
+
+    private final Timer stageTimer(final String stage){
+        return Timer.builder("ingestion.stage")
+                .tag("stage", stage)
+                .description("Time spent per ingestion stage")
+                .register(registry);
+    }
+
+    public final void recordParse(final long nanos){
+        parseTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public final void recordTransform(final long nanos){
+        transformTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public final void recordValidation(final long nanos){
+        validationTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public final void recordCommit(final long nanos, final int rows){
+        commitTimer.record(nanos, TimeUnit.NANOSECONDS);
+        committedRows.increment(rows);
+    }
+
+    public final void rejectedCells(final long count){
+        if (count > 0){
+            rejectedCells.increment(count);
+        }
+    }
+
+    public final void failedBatch(){
+        failedBatches.increment();
+    }
+
+    public final void deadLettered(){
+        deadLetteredRows.increment();
+    }
+
+    //Per upload gauges, removed with unregister() once the upload stops.
+    public final List<Meter> register(final String upload, final IngestionPipeline pipeline){
+        return List.of(
+                Gauge.builder("ingestion.upload.rowsPerSecond", pipeline, IngestionPipeline::getRowsPerSecond)
+                        .tag("upload", upload)
+                        .strongReference(true)
+                        .register(registry),
+                Gauge.builder("ingestion.upload.batchSize", pipeline, IngestionPipeline::getBatchSize)
+                        .tag("upload", upload)
+                        .strongReference(true)
+                        .register(registry),
+                Gauge.builder("ingestion.upload.queueDepth", pipeline, IngestionPipeline::getQueueDepth)
+                        .tag("upload", upload)
+                        .strongReference(true)
+                        .register(registry));
+    }
+
+    public final void unregister(final List<Meter> meters){
+        for(final Meter meter : meters){
+            registry.remove(meter);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.dataprocessor.server.services;
+
+import com.dataprocessor.server.entities.UploadDescriptor;
+import com.dataprocessor.server.repositories.UploadRepository;
+import com.dataprocessor.server.utils.FairShareExecutor;
+import com.dataprocessor.server.utils.ListUtils;
+import com.dataprocessor.server.utils.csv.CsvUtil;
+import com.dataprocessor.server.utils.tuples.Tuple2;
+import io.micrometer.core.instrument.Meter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+//Parse -> transform/batch assembly -> concurrent writers. Full queues and busy writers block the upstream stage.
+public final class IngestionPipeline {
+    private static final CsvUtil.CsvRecord END_OF_INPUT = nameOrIndex -> null;
+    private static final int PARSE_TIMING_CHUNK = 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final UploadRepository repository;
+    private final BatchCommitter committer;
+    private final MappingPlan plan;
+    private final UploadDescriptor upload;
+    private final CsvUtil.CsvIterator iterator;
+    private final AdaptiveBatchSizer batchSizer;
+    private final BlockingQueue<CsvUtil.CsvRecord> parsedRecords;
+    private final FairShareExecutor.Share writers;
+    private final ProcessedTracker tracker;
+    private final CountDownLatch parsed;
+    private final CountDownLatch completion;
+    private final Runnable beforeCompletion;
+    private final Consumer<UploadDescriptor> onSuspended;
+    private final IngestionMetrics metrics;
+    private final List<Meter> gauges;
+    private final MappingPlan.Stats stats = new MappingPlan.Stats();
+    private final long startTime = System.currentTimeMillis();
+    private final AtomicLong committedRows = new AtomicLong();
+    private volatile Throwable failure;
+
+    public IngestionPipeline(final UploadRepository repository,
+                             final BatchCommitter committer,
+                             final RecordValidationUtilService recordValidationUtilService,
+                             final UploadDescriptor upload,
+                             final CsvUtil.CsvIterator iterator,
+                             final AdaptiveBatchSizer batchSizer,
+                             final FairShareExecutor writerPool,
+                             final Priority priority,
+                             final int writersCount,
+                             final int queueCapacity,
+                             final IngestionMetrics metrics,
+                             final Runnable beforeCompletion,
+                             final Consumer<UploadDescriptor> onSuspended){
+        this.repository = repository;
+        this.committer = committer;
+        this.plan = MappingPlan.compile(upload.mappings, iterator.getHeaderMap(), recordValidationUtilService);
+        this.upload = upload;
+        this.iterator = iterator;
+        this.batchSizer = batchSizer;
+        this.parsedRecords = new ArrayBlockingQueue<>(queueCapacity);
+        //At most 'writersCount' batches of this upload are queued or committing at once
+        this.writers = writerPool.register(upload.name, priority.weight, writersCount, this::fail);
+        this.tracker = new ProcessedTracker(new Checkpoint(upload.processed, upload.checkpointOffset));
+        this.parsed = new CountDownLatch(1);
+        this.completion = new CountDownLatch(1);
+        this.beforeCompletion = beforeCompletion;
+        this.onSuspended = onSuspended;
+        this.metrics = metrics;
+        this.gauges = metrics.register(upload.name, this);
+    }
+
+    public final IngestionPipeline start(){
+        Thread.startVirtualThread(this::parse);
+        Thread.startVirtualThread(this::transformAndDispatch);
+        return this;
+    }
+
+    //Returns once the source is fully read, while writers may still be committing.
+    public final void awaitParsed() throws InterruptedException {
+        parsed.await();
+    }
+
+    public final boolean isFailed(){
+        return failure != null;
+    }
+
+    public final void await() throws InterruptedException {
+        completion.await();
+    }
+
+    public final boolean isFinished(){
+        return completion.getCount() == 0;
+    }
+
+    final double getRowsPerSecond(){
+        final long elapsed = System.currentTimeMillis() - startTime;
+        return elapsed <= 0 ? 0 : committedRows.get() * 1000.0 / elapsed;
+    }
+
+    final double getBatchSize(){
+        return batchSizer.getBatchSize();
+    }
+
+    final double getQueueDepth(){
+        return parsedRecords.size();
+    }
+
+    private final void parse(){
+        long parseNanos = 0;
+        int chunk = 0;
+        try {
+            for (;;){
+                final long startTime = System.nanoTime();
+                if (failure != null || !iterator.hasNext())
+                    break;
+                final CsvUtil.CsvRecord record = iterator.next();
+                parseNanos += System.nanoTime() - startTime;
+                if (++chunk == PARSE_TIMING_CHUNK){
+                    metrics.recordParse(parseNanos);
+                    parseNanos = 0;
+                    chunk = 0;
+                }
+                if (record != null){
+                    put(parsedRecords, record);
+                }
+            }
+        }catch (final Throwable cause){
+            fail(cause);
+        }finally {
+            metrics.recordParse(parseNanos);
+            parsed.countDown();
+            put(parsedRecords, END_OF_INPUT);
+        }
+    }
+
+    private final void transformAndDispatch(){
+        try {
+            long rowNumber = upload.processed;
+            long batchStart = rowNumber;
+            int batchSize = batchSizer.getBatchSize();
+            List<List<Tuple2<String, String>>> recordsBuffer = new ArrayList<>(batchSize + 16);
+            //A full batch waits for the next record, whose start offset is the checkpoint right after the batch
+            Batch pending = null;
+            long transformNanos = 0;
+            for (;;){
+                final CsvUtil.CsvRecord record = parsedRecords.take();
+                if (record == END_OF_INPUT || failure != null)
+                    break;
+
+                if (pending != null){
+                    pending.endOffset = record.getOffset();
+                    dispatch(pending);
+                    pending = null;
+                }
+                final long startTime = System.nanoTime();
+                recordsBuffer.add(plan.apply(record, stats));
+                transformNanos += System.nanoTime() - startTime;
+                rowNumber++;
+                if (recordsBuffer.size() >= batchSize){
+                    recordStats(transformNanos);
+                    transformNanos = 0;
+                    pending = new Batch(batchStart, rowNumber, recordsBuffer);
+                    batchSize = batchSizer.getBatchSize();
+                    recordsBuffer = new ArrayList<>(batchSize + 16);
+                    batchStart = rowNumber;
+                }
+            }
+            recordStats(transformNanos);
+            if (failure == null){
+                if (pending != null){
+                    dispatch(pending);
+                }
+                dispatch(new Batch(batchStart, rowNumber, recordsBuffer));
+            }
+            writers.awaitIdle();
+            if (failure != null){
+                throw failure;
+            }
+            final Checkpoint checkpoint = tracker.getWatermark();
+            repository.updateProcessed(upload, checkpoint.rows, checkpoint.offset, iterator.getTotalRows());
+            //The upload only reports FINISHED once it is searchable
+            beforeCompletion.run();
+            repository.completeUploadWithSuccess(upload);
+        }catch (final Throwable cause){
+            if (isUnavailable(cause)){
+                //Committed batches already moved the checkpoint, the upload stays PROCESSING and is resumed from there
+                logger.warn("Storage is not available, suspending upload '{}'", upload.name, cause);
+                onSuspended.accept(upload);
+            }else{
+                logger.warn("Failure while ingesting upload '{}'", upload.name, cause);
+                repository.completeUploadWithError(upload);
+            }
+        }finally {
+            writers.close();
+            parsedRecords.clear();
+            try{iterator.close();}catch (final Throwable ignored){}
+            metrics.unregister(gauges);
+            completion.countDown();
+        }
+    }
+
+    //Validation runs inside the plan, so the transform stage is reported without it.
+    private final void recordStats(final long transformNanos){
+        metrics.recordTransform(Math.max(0, transformNanos - stats.validationNanos));
+        metrics.recordValidation(stats.validationNanos);
+        metrics.rejectedCells(stats.rejectedCells);
+        stats.reset();
+    }
+
+    private final void dispatch(final Batch batch){
+        writers.execute(()->{
+            final long startTime = System.nanoTime();
+            final Checkpoint checkpoint = tracker.claim(batch);
+            final int committed = committer.commit(upload, checkpoint.rows, checkpoint.offset, iterator.getTotalRows(), batch.startRow, batch.records);
+            final long latency = System.nanoTime() - startTime;
+            metrics.recordCommit(latency, committed);
+            committedRows.addAndGet(committed);
+            batchSizer.onCommit(batch.records.size(), ListUtils.sumOfLengths(batch.records), TimeUnit.NANOSECONDS.toMillis(latency));
+            tracker.markDone(batch);
+        }, batch.records.size());
+    }
+
+    private static final boolean isUnavailable(final Throwable cause){
+        return cause instanceof ResponseStatusException e && HttpStatus.SERVICE_UNAVAILABLE.equals(e.getStatusCode());
+    }
+
+    private final void fail(final Throwable cause){
+        if (failure == null){
+            failure = cause;
+        }
+    }
+
+    private final <T> void put(final BlockingQueue<T> queue, final T item){
+        try {
+            while (!queue.offer(item, 1, TimeUnit.SECONDS)){
+                if (failure != null && item != END_OF_INPUT)
+                    return;
+                if (isFinished())
+                    return;
+            }
+        }catch (final InterruptedException cause){
+            Thread.currentThread().interrupt();
+            fail(cause);
+        }
+    }
+
+    //Interactive uploads get a larger share of the writer pool, so small uploads are not stuck behind bulk loads.
+    public static enum Priority{
+        INTERACTIVE(8), BULK(1);
+
+        private final double weight;
+
+        private Priority(final double weight){
+            this.weight = weight;
+        }
+    }
+
+    private static final class Batch{
+        private final long startRow;
+        private final long endRow;
+        private final List<List<Tuple2<String, String>>> records;
+        private volatile long endOffset = -1;
+
+        private Batch(final long startRow, final long endRow, final List<List<Tuple2<String, String>>> records){
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.records = records;
+        }
+    }
+
+    //Rows processed and the byte offset where the next row starts (-1 when unknown).
+    private static final class Checkpoint{
+        private final long rows;
+        private final long offset;
+
+        private Checkpoint(final long rows, final long offset){
+            this.rows = rows;
+            this.offset = offset;
+        }
+    }
+
+    //Batches commit out of order, so the persisted checkpoint may only cover a contiguous prefix of committed rows.
+    //A resume commits the batches past it again, the storage engine skips the rows they already stored.
+    private static final class ProcessedTracker{
+        private final TreeMap<Long, Batch> done = new TreeMap<>();
+        private Checkpoint watermark;
+
+        private ProcessedTracker(final Checkpoint watermark){
+            this.watermark = watermark;
+        }
+
+        private synchronized final Checkpoint claim(final Batch batch){
+            if (batch.startRow != watermark.rows)
+                return watermark;
+
+            Batch last = batch;
+            Batch next;
+            while ((next = done.get(last.endRow)) != null && next != last){
+                last = next;
+            }
+            return new Checkpoint(last.endRow, last.endOffset);
+        }
+
+        private synchronized final void markDone(final Batch batch){
+            done.put(batch.startRow, batch);
+            Batch next;
+            while ((next = done.remove(watermark.rows)) != null){
+                watermark = new Checkpoint(next.endRow, next.endOffset);
+            }
+        }
+
+        private synchronized final Checkpoint getWatermark(){
+            return watermark;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.dataprocessor.server.services;
+
+import com.dataprocessor.server.entities.UploadMapping;
+import com.dataprocessor.server.utils.StringTransformer;
+import com.dataprocessor.server.utils.StringUtil;
+import com.dataprocessor.server.utils.csv.CsvUtil;
+import com.dataprocessor.server.utils.tuples.Tuple2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+//Upload mappings resolved against a CSV header once per upload: source column indexes and validators are
+//looked up at compile time, so transforming a row only reads the needed fields and applies the transformations.
+public final class MappingPlan {
+    private final CompiledMapping[] mappings;
+
+    private MappingPlan(final CompiledMapping[] mappings){
+        this.mappings = mappings;
+    }
+
+    public static final MappingPlan compile(final List<UploadMapping> mappings,
+                                            final Map<String, Integer> headerMap,
+                                            final RecordValidationUtilService recordValidationUtilService){
+        final RecordValidationUtilService.Validator none = recordValidationUtilService.validatorFor(RecordValidationUtilService.NONE, null);
+        final CompiledMapping[] compiled = new CompiledMapping[mappings.size()];
+        for (int i = 0; i < compiled.length; i++) {
+            final UploadMapping mapping = mappings.get(i);
+            final int sourcesCount = mapping.sourceColumns.size();
+            final String[] names = new String[sourcesCount];
+            final int[] indexes = new int[sourcesCount];
+            final RecordValidationUtilService.Validator[] validators = new RecordValidationUtilService.Validator[sourcesCount];
+            for (int j = 0; j < sourcesCount; j++) {
+                names[j] = mapping.sourceColumns.get(j);
+                final Integer index = headerMap == null ? null : headerMap.get(names[j]);
+                indexes[j] = index == null ? -1 : index;
+                final RecordValidationUtilService.Validator validator = recordValidationUtilService.validatorFor(mapping.validator, names[j]);
+                //Pass-through columns are neither timed nor counted as validated
+                validators[j] = validator == none ? null : validator;
+            }
+            compiled[i] = new CompiledMapping(mapping.destinationColumn, names, indexes, validators, StringTransformer.compile(mapping.transformations));
+        }
+        return new MappingPlan(compiled);
+    }
+
+    public final List<Tuple2<String, String>> apply(final CsvUtil.CsvRecord record, final Stats stats){
+        final List<Tuple2<String, String>> res = new ArrayList<>(mappings.length);
+        for (final CompiledMapping mapping : mappings) {
+            final String value = mapping.apply(record, stats);
+            if (!StringUtil.isNullOrBlank(value)){
+                res.add(new Tuple2<>(mapping.destinationColumn, value));
+            }
+        }
+        return res;
+    }
+
+    private static final class CompiledMapping{
+        private final String destinationColumn;
+        private final String[] names;
+        private final int[] indexes;
+        private final RecordValidationUtilService.Validator[] validators;
+        private final StringTransformer.Compiled transformations;
+
+        private CompiledMapping(final String destinationColumn,
+                                final String[] names,
+                                final int[] indexes,
+                                final RecordValidationUtilService.Validator[] validators,
+                                final StringTransformer.Compiled transformations){
+            this.destinationColumn = destinationColumn;
+            this.names = names;
+            this.indexes = indexes;
+            this.validators = validators;
+            this.transformations = transformations;
+        }
+
+        private final String apply(final CsvUtil.CsvRecord record, final Stats stats){
+            //The transformations are idempotent, so a single source value does not need the second pass over the joined value
+            if (names.length == 1)
+                return extract(record, 0, stats);
+
+            final StringBuilder sb = new StringBuilder(128);
+            //Iterate over source columns as more than one is allowed (e.g. first and last name)
+            for (int i = 0; i < names.length - 1; i++) {
+                sb.append(extract(record, i, stats)).append(" ");
+            }
+            sb.append(extract(record, names.length - 1, stats));
+            return transformations.apply(sb.toString());
+        }
+
+        private final String extract(final CsvUtil.CsvRecord record, final int source, final Stats stats){
+            final int index = indexes[source];
+            final String raw = index < 0 ? record.getColumnVale(names[source]) : record.getColumnVale(index);
+            final String transformed = transformations.apply(raw);
+            final RecordValidationUtilService.Validator validator = validators[source];
+            if (validator == null)
+                return transformed;
+
+            final long startTime = System.nanoTime();
+            final String res = validator.validate(transformed);
+            stats.validationNanos += System.nanoTime() - startTime;
+            if (res.isEmpty() && !transformed.isBlank()){
+                stats.rejectedCells++;
+            }
+            return res;
+        }
+    }
+
+    //Accumulated by the thread applying the plan and drained into the ingestion metrics.
+    public static final class Stats{
+        public long validationNanos;
+        public long rejectedCells;
+
+        public final void reset(){
+            validationNanos = 0;
+            rejectedCells = 0;
+        }
+    }
+}
@@ -1,34 +1,151 @@
 package com.dataprocessor.server.services;
 
+import com.dataprocessor.server.entities.UploadMapping;
 import com.dataprocessor.server.utils.StringTransformer;
 import com.dataprocessor.server.utils.csv.CsvUtil;
 import org.apache.commons.validator.routines.EmailValidator;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.ResolverStyle;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
+//Registry of named validators. A mapping selects one with an '@name' token, otherwise it is picked from the source column name.
 @Service
 public final class RecordValidationUtilService {
+    public static final String NONE = "none";
+    public static final String EMAIL = "email";
+    public static final String PHONE = "phone";
+    public static final String DATE = "date";
+    public static final String NUMERIC = "numeric";
+    public static final String POSTAL = "postal";
+
+    private static final int MIN_PHONE_DIGITS = 5;
+    private static final Pattern POSTAL_CODE = Pattern.compile("[\\p{Alnum}][\\p{Alnum} \\-]{1,8}[\\p{Alnum}]");
+    private static final DateTimeFormatter[] DATE_FORMATS = new DateTimeFormatter[]{
+            DateTimeFormatter.ofPattern("uuuu-MM-dd").withResolverStyle(ResolverStyle.STRICT),
+            DateTimeFormatter.ofPattern("uuuu/MM/dd").withResolverStyle(ResolverStyle.STRICT),
+            DateTimeFormatter.ofPattern("dd.MM.uuuu").withResolverStyle(ResolverStyle.STRICT),
+            DateTimeFormatter.ofPattern("MM/dd/uuuu").withResolverStyle(ResolverStyle.STRICT),
+            DateTimeFormatter.ofPattern("uuuuMMdd").withResolverStyle(ResolverStyle.STRICT)};
+
+    private final Map<String, Validator> validators = new ConcurrentHashMap<>(16);
+
+    public RecordValidationUtilService(){
+        final EmailValidator emailValidator = EmailValidator.getInstance(true, true);
+        register(NONE, value -> value);
+        register(EMAIL, value -> emailValidator.isValid(value) ? value : "");
+        register(PHONE, RecordValidationUtilService::phone);
+        register(DATE, RecordValidationUtilService::date);
+        register(NUMERIC, RecordValidationUtilService::numeric);
+        register(POSTAL, value -> POSTAL_CODE.matcher(value).matches() ? value : "");
+    }
+
+    public final void register(final String name, final Validator validator){
+        validators.put(name.toLowerCase(), validator);
+    }
+
     public final String extractAndValidate(final CsvUtil.CsvRecord record,
                                             final String rowName,
                                             final List<StringTransformer.Transformation> transformations){
+        return validatorFor(null, rowName).validate(StringTransformer.transform(record.getColumnVale(rowName), transformations));
+    }
+
+    public final void checkValidators(final List<UploadMapping> mappings){
+        for(final UploadMapping mapping : mappings){
+            if (mapping.validator != null && !validators.containsKey(mapping.validator)){
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown validator '@" + mapping.validator + "'. Known validators: " + validators.keySet() + ".");
+            }
+        }
+    }
+
+    //Binds a validator to a source column once. 'name' is the validator selected in the mapping, or null to pick it by column name.
+    public final Validator validatorFor(final String name, final String rowName){
+        if (name != null){
+            final Validator validator = validators.get(name);
+            if (validator == null){
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown validator '@" + name + "'.");
+            }
+            return validator;
+        }
         final String rowNameLowerCase = rowName.toLowerCase();
-        final String result = StringTransformer.transform(record.getColumnVale(rowName), transformations);
-        if (rowNameLowerCase.contains("mail")){
-            if (EmailValidator.getInstance(true, true).isValid(result)){
-                return result;
-            }else {
-                return "";
+        if (rowNameLowerCase.contains("mail"))
+            return validators.get(EMAIL);
+        if (rowNameLowerCase.contains("phone"))
+            return validators.get(PHONE);
+        return validators.get(NONE);
+    }
+
+    private static final String phone(final String value){
+        final int length = value.length();
+        int digits = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c >= '0' && c <= '9'){
+                digits++;
+            }
+        }
+        if (digits < MIN_PHONE_DIGITS)
+            return "";
+        if (digits == length)
+            return value;
+
+        final char[] res = new char[digits];
+        int at = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c >= '0' && c <= '9'){
+                res[at++] = c;
             }
         }
-        if (rowNameLowerCase.contains("phone")){
-            final String onlyNumber = result.replaceAll("[^\\d.]", "").replace('.', ' ').replace(" ", "");
-            if (onlyNumber.length() < 5){
+        return new String(res);
+    }
+
+    //Accepts an optional sign, digits with space or apostrophe group separators and one '.' or ',' decimal separator.
+    private static final String numeric(final String value){
+        final int length = value.length();
+        final StringBuilder sb = new StringBuilder(length);
+        boolean digits = false;
+        boolean separator = false;
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c >= '0' && c <= '9'){
+                sb.append(c);
+                digits = true;
+            }else if ((c == '-' || c == '+') && sb.isEmpty()){
+                sb.append(c);
+            }else if ((c == '.' || c == ',') && !separator && digits){
+                sb.append('.');
+                separator = true;
+                digits = false;
+            }else if ((c != ' ' && c != '\'') || !digits || separator){
                 return "";
-            }else{
-                return onlyNumber;
             }
         }
-        return result;
+        return digits ? sb.toString() : "";
+    }
+
+    //Normalizes the supported date layouts to ISO yyyy-MM-dd.
+    private static final String date(final String value){
+        //Every supported layout is 8 or 10 characters long and starts with a digit, so most invalid values skip the parsers
+        if ((value.length() != 8 && value.length() != 10) || value.charAt(0) < '0' || value.charAt(0) > '9')
+            return "";
+        for(final DateTimeFormatter format : DATE_FORMATS){
+            try {
+                return LocalDate.parse(value, format).toString();
+            }catch (final Throwable ignored){}
+        }
+        return "";
+    }
+
+    public static interface Validator{
+        //Returns the valid form of a transformed value, or an empty string when it is invalid.
+        String validate(final String value);
     }
 }
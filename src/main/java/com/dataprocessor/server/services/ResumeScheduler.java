@@ -0,0 +1,133 @@
+package com.dataprocessor.server.services;
+
+import com.dataprocessor.server.entities.ResumeQueueEntry;
+import com.dataprocessor.server.entities.UploadDescriptor;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+//Resumes unfinished uploads a few at a time, so a restart does not start every pending ingest at once.
+@Service
+public final class ResumeScheduler {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final UploadsService service;
+    private final int concurrency;
+    private final long retryDelayMillis;
+    private final PriorityQueue<UploadDescriptor> queued;
+    private final Map<String, UploadDescriptor> running = new LinkedHashMap<>(16);
+
+    @Autowired
+    public ResumeScheduler(final UploadsService service,
+                           @Value("${resume.concurrency:1}") final int concurrency,
+                           @Value("${resume.order:OLDEST_FIRST}") final Order order,
+                           @Value("${resume.retryDelaySeconds:60}") final long retryDelaySeconds){
+        this.service = service;
+        this.concurrency = Math.max(1, concurrency);
+        this.retryDelayMillis = Math.max(1, retryDelaySeconds) * 1000;
+        this.queued = new PriorityQueue<>(16, order.comparator);
+    }
+
+    @PostConstruct
+    private final void init(){
+        //Pipelines suspended because the storage is not available are retried like resumes whose source was not
+        service.onSuspended(this::retryLater);
+    }
+
+    public synchronized final void submit(final List<UploadDescriptor> descriptors){
+        for(final UploadDescriptor descriptor : descriptors){
+            if (!running.containsKey(descriptor.name) && queued.stream().noneMatch(d -> d.name.equals(descriptor.name))){
+                queued.add(descriptor);
+            }
+        }
+        drain();
+    }
+
+    public synchronized final List<ResumeQueueEntry> getQueue(){
+        final List<ResumeQueueEntry> res = new ArrayList<>(running.size() + queued.size());
+        for(final UploadDescriptor descriptor : running.values()){
+            res.add(new ResumeQueueEntry(descriptor.name, ResumeQueueEntry.State.RUNNING, 0, remaining(descriptor), descriptor.timeStamp));
+        }
+        final List<UploadDescriptor> ordered = new ArrayList<>(queued);
+        ordered.sort(queued.comparator());
+        for (int i = 0; i < ordered.size(); i++) {
+            final UploadDescriptor descriptor = ordered.get(i);
+            res.add(new ResumeQueueEntry(descriptor.name, ResumeQueueEntry.State.QUEUED, i + 1, remaining(descriptor), descriptor.timeStamp));
+        }
+        return res;
+    }
+
+    private final void drain(){
+        while (running.size() < concurrency && !queued.isEmpty()){
+            final UploadDescriptor descriptor = queued.poll();
+            running.put(descriptor.name, descriptor);
+            Thread.startVirtualThread(() -> resume(descriptor));
+        }
+    }
+
+    private final void resume(final UploadDescriptor descriptor){
+        logger.info("Resuming: {}", descriptor);
+        try {
+            final IngestionPipeline pipeline = service.continueIngestion(descriptor.name);
+            if (pipeline == null) {
+                logger.warn("{} - NOT FOUND.", descriptor.name);
+            } else {
+                logger.info("'{}' - successfully resumed.", descriptor.name);
+                pipeline.await();
+                logger.info("'{}' - finished.", descriptor.name);
+            }
+        } catch (final ResponseStatusException cause) {
+            if (HttpStatus.SERVICE_UNAVAILABLE.equals(cause.getStatusCode())){
+                logger.warn("Failed to resume '{}', retrying in {} ms. Cause: ", descriptor.name, retryDelayMillis, cause);
+                retryLater(descriptor);
+            }else{
+                logger.warn("Failed to resume '{}'. Cause: ", descriptor, cause);
+            }
+        } catch (final Throwable cause) {
+            logger.warn("Failed to resume '{}'. Cause: ", descriptor, cause);
+        } finally {
+            synchronized (this){
+                running.remove(descriptor.name);
+                drain();
+            }
+        }
+    }
+
+    //The source or the storage may be back by then, e.g. MinIO or neo4j was still starting
+    private final void retryLater(final UploadDescriptor descriptor){
+        Thread.startVirtualThread(() -> {
+            try {
+                Thread.sleep(retryDelayMillis);
+            }catch (final InterruptedException ignored){
+                return;
+            }
+            submit(List.of(descriptor));
+        });
+    }
+
+    private static final long remaining(final UploadDescriptor descriptor){
+        return Math.max(0, descriptor.outOf - descriptor.processed);
+    }
+
+    public static enum Order{
+        OLDEST_FIRST(Comparator.comparingLong((UploadDescriptor d) -> d.timeStamp)),
+        SMALLEST_REMAINING_FIRST(Comparator.comparingLong(ResumeScheduler::remaining).thenComparingLong(d -> d.timeStamp));
+
+        private final Comparator<UploadDescriptor> comparator;
+
+        private Order(final Comparator<UploadDescriptor> comparator){
+            this.comparator = comparator;
+        }
+    }
+}
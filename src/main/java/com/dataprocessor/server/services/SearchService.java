@@ -1,9 +1,12 @@
 package com.dataprocessor.server.services;
 
 import com.dataprocessor.server.entities.*;
-import com.dataprocessor.server.repositories.ColumnsRepository;
 import com.dataprocessor.server.repositories.ExportsRepository;
+import com.dataprocessor.server.repositories.SearchCache;
 import com.dataprocessor.server.repositories.SearchRepository;
+import com.dataprocessor.server.repositories.StorageEngine;
+import com.dataprocessor.server.utils.SearchCursor;
+import com.dataprocessor.server.utils.Signature;
 import com.dataprocessor.server.utils.StringTransformer;
 import com.dataprocessor.server.utils.StringUtil;
 import com.dataprocessor.server.utils.TempFileUtil;
@@ -16,12 +19,15 @@ import org.apache.commons.csv.CSVPrinter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.File;
 import java.io.FileWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -29,19 +35,31 @@ import java.util.Map;
 
 @Service
 public final class SearchService {
+    //Shapes of search results. Version 1 has one result per matching value, version 2 one per matching row.
+    public static final int API_V1 = 1;
+    public static final int API_V2 = 2;
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final SearchRepository repository;
-    private final ColumnsRepository columnsRepository;
+    private final StorageEngine storageEngine;
     private final ExportsRepository exportsRepository;
+    private final SearchCache searchCache;
+    private final int exportPageSize;
+    private final int streamBatchSize;
 
     @Autowired
     public SearchService(final SearchRepository repository,
-                         final ColumnsRepository columnsRepository,
-                         final ExportsRepository exportsRepository){
+                         final StorageEngine storageEngine,
+                         final ExportsRepository exportsRepository,
+                         final SearchCache searchCache,
+                         @Value("${search.export.pageSize:5000}") final int exportPageSize,
+                         @Value("${search.stream.batchSize:50}") final int streamBatchSize){
         this.repository = repository;
-        this.columnsRepository = columnsRepository;
+        this.storageEngine = storageEngine;
         this.exportsRepository = exportsRepository;
+        this.searchCache = searchCache;
+        this.exportPageSize = Math.max(1, exportPageSize);
+        this.streamBatchSize = Math.max(1, streamBatchSize);
     }
 
     public final List<Map<String, List<String>>> searchForField(final String column,
@@ -51,8 +69,10 @@ public final class SearchService {
                                                                 final List<String> joinByColumn,
                                                                 final int maxJoinDepth,
                                                                 final int skip,
-                                                                final int limit){
-        return repository.search(convertQuery(column, query, queryType), LogicalPredicate.AND, limitByUploads, joinByColumn, maxJoinDepth, skip, limit);
+                                                                final int limit,
+                                                                final int apiVersion){
+        checkApiVersion(apiVersion);
+        return cachedSearch(convertQuery(column, query, queryType), LogicalPredicate.AND, limitByUploads, joinByColumn, maxJoinDepth, apiVersion, null, skip, limit);
     }
 
     private final List<String> convertQuery(final String column,
@@ -82,7 +102,82 @@ public final class SearchService {
                                                         final int maxJoinDepth,
                                                         final int skip,
                                                         final int limit){
-        return repository.search(columnSearches, predicate, limitByUploads, joinByColumns, maxJoinDepth, skip, limit);
+        return cachedSearch(columnSearches, predicate, limitByUploads, joinByColumns, maxJoinDepth, API_V2, null, skip, limit);
+    }
+
+    //Exports and streams read through, their pages are too large or too rarely repeated to be worth caching
+    private final List<Map<String, List<String>>> cachedSearch(final List<String> columnSearches,
+                                                               final LogicalPredicate predicate,
+                                                               final List<String> limitByUploads,
+                                                               final List<String> joinByColumns,
+                                                               final int maxJoinDepth,
+                                                               final int apiVersion,
+                                                               final String after,
+                                                               final int skip,
+                                                               final int limit){
+        return searchCache.get(new SearchEntity(columnSearches, predicate, limitByUploads, joinByColumns, maxJoinDepth), apiVersion, after, skip, limit,
+                () -> apiVersion == API_V1
+                        ? storageEngine.searchValues(columnSearches, predicate, limitByUploads, joinByColumns, maxJoinDepth, skip, limit)
+                        : storageEngine.search(columnSearches, predicate, limitByUploads, joinByColumns, maxJoinDepth, after, skip, limit));
+    }
+
+    //Pages by continuation token: the next page starts after the last row of this one, however deep it is.
+    //Only a request with a cursor, empty for the first page, walks in row order and gets the next one, a plain page is
+    //taken in whatever order the rows are found. 'skip' only pages plain requests, a cursor already says where to start.
+    //Cursors continue after a row, so they need version 2.
+    public final SearchPage searchPage(final List<String> columnSearches,
+                                       final LogicalPredicate predicate,
+                                       final List<String> limitByUploads,
+                                       final List<String> joinByColumns,
+                                       final int maxJoinDepth,
+                                       final String cursor,
+                                       final int skip,
+                                       final int limit,
+                                       final int apiVersion){
+        checkApiVersion(apiVersion);
+        if (apiVersion == API_V1){
+            if (cursor != null)
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Cursors need search API version " + API_V2 + ".");
+            return new SearchPage(cachedSearch(columnSearches, predicate, limitByUploads, joinByColumns, maxJoinDepth, API_V1, null, skip, limit), null);
+        }
+        final String signature = Signature.getSignature(new SearchEntity(columnSearches, predicate, limitByUploads, joinByColumns, maxJoinDepth));
+        final String after = SearchCursor.decode(signature, cursor);
+        rejectSkipWithCursor(after, skip);
+        final List<Map<String, List<String>>> rows = cachedSearch(columnSearches, predicate, limitByUploads, joinByColumns, maxJoinDepth, API_V2, after, skip, limit);
+        if (after == null || rows.size() < limit)
+            return new SearchPage(rows, null);
+        return new SearchPage(rows, SearchCursor.encode(signature, rows.getLast().get("_id").getFirst()));
+    }
+
+    //Newline delimited JSON, one row per line, flushed after every batch. The cursor is checked before the response
+    //starts, a failed write stops the search.
+    public final StreamingResponseBody streamSearch(final List<String> columnSearches,
+                                                    final LogicalPredicate predicate,
+                                                    final List<String> limitByUploads,
+                                                    final List<String> joinByColumns,
+                                                    final int maxJoinDepth,
+                                                    final String cursor,
+                                                    final int skip,
+                                                    final int limit){
+        final String after = SearchCursor.decode(Signature.getSignature(new SearchEntity(columnSearches, predicate, limitByUploads, joinByColumns, maxJoinDepth)), cursor);
+        rejectSkipWithCursor(after, skip);
+        return out -> storageEngine.streamSearch(columnSearches, predicate, limitByUploads, joinByColumns, maxJoinDepth, after, skip, limit, streamBatchSize, rows -> {
+            for(final Map<String, List<String>> row : rows){
+                out.write(JSON.toJson(row).getBytes(StandardCharsets.UTF_8));
+                out.write('\n');
+            }
+            out.flush();
+        });
+    }
+
+    private static final void checkApiVersion(final int apiVersion){
+        if (apiVersion != API_V1 && apiVersion != API_V2)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unsupported search API version: " + apiVersion + ".");
+    }
+
+    private static final void rejectSkipWithCursor(final String after, final int skip){
+        if (after != null && skip > 0)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "'skip' can not be combined with a cursor.");
     }
 
     public final SearchEntity getSearch(final String name){
@@ -115,8 +210,9 @@ public final class SearchService {
         final CsvUtil.CsvIterator iterator = CsvUtil.parseCsv(file, true);
         final MatchEntity resultEntity = repository.createMatchEntity(exportDestination, 0, iterator.getTotalRows());
         final List<UploadMapping> mappings = UploadMappingUtil.parse(raw_mappings);
+        final List<StringTransformer.Compiled> transformers = mappings.stream().map(m -> StringTransformer.compile(m.transformations)).toList();
         Thread.startVirtualThread(()->{
-            final String[] header = columnsRepository.listAllColumn().toArray(new String[]{});
+            final String[] header = storageEngine.listColumns().toArray(new String[]{});
             final Map<String, Integer> headerMap = new HashMap<>(header.length * 2);
             for (int i = 0; i < header.length; i++) {
                 headerMap.put(header[i], i);
@@ -142,12 +238,13 @@ public final class SearchService {
                 while (iterator.hasNext()){
                     final CsvUtil.CsvRecord record = iterator.next();
                     final List<Tuple2<String, String>> rowToSearch = new ArrayList<>(mappings.size());
-                    for(final UploadMapping mapping : mappings){
+                    for (int i = 0; i < mappings.size(); i++) {
+                        final UploadMapping mapping = mappings.get(i);
                         final String rawValue = record.getColumnVale(mapping.sourceColumns.getFirst());
                         if (StringUtil.isNullOrBlank(rawValue))
                             continue;
 
-                        final String value = StringTransformer.transform(rawValue, mapping.transformations);
+                        final String value = transformers.get(i).apply(rawValue);
                         if (StringUtil.isNullOrBlank(value))
                             continue;
 
@@ -209,15 +306,14 @@ public final class SearchService {
         }
         exportsRepository.saveSearch(exportDestination, new SearchEntity(columnSearches, predicate, limitByUploads, joinByColumns, maxJoinDepth));
         Thread.startVirtualThread(()->{
-            final String[] header = columnsRepository.listAllColumn().toArray(new String[]{});
+            final String[] header = storageEngine.listColumns().toArray(new String[]{});
             final Map<String, Integer> headerMap = new HashMap<>(header.length * 2);
             for (int i = 0; i < header.length; i++) {
                 headerMap.put(header[i], i);
             }
 
             final File outputFile = TempFileUtil.createTmpFile(".csv");
-            int skip = 0;
-            final int pageSize = 50;
+            final long[] exported = {0};
 
             final CSVFormat csvFormat = CSVFormat.DEFAULT.builder()
                     .setHeader(header)
@@ -231,12 +327,9 @@ public final class SearchService {
             }
 
             try (final CSVPrinter printer = new CSVPrinter(fw, csvFormat)) {
-                for (;;) {
-                    final List<Map<String, List<String>>> batch = search(columnSearches, predicate, limitByUploads, joinByColumns, maxJoinDepth, skip, pageSize);
-                    skip += pageSize;
-                    if (batch.isEmpty())
-                        break;
-
+                //One unordered seed query driven by the value indexes, the rows are fetched and written in large batches
+                storageEngine.streamSearch(columnSearches, predicate, limitByUploads, joinByColumns, maxJoinDepth, null, 0, Integer.MAX_VALUE, exportPageSize, batch -> {
+                    exported[0] += batch.size();
                     for (final Map<String, List<String>> record : batch) {
                         final List<String> sortedRecord = new ArrayList<>(headerMap.size());
                         for (int i = 0; i < headerMap.size(); i++) {
@@ -255,8 +348,8 @@ public final class SearchService {
                         }
                         printer.printRecord(sortedRecord);
                     }
-                    logger.info("Exported {} rows.", skip);
-                }
+                    logger.info("Exported {} rows.", exported[0]);
+                });
             }catch (final Throwable cause){
                 logger.error("Failed to write csv", cause);
             }finally {
@@ -272,6 +365,6 @@ public final class SearchService {
     }
 
     public final List<String> getMappings(){
-        return columnsRepository.listAllColumn();
+        return storageEngine.listColumns();
     }
 }
@@ -1,47 +1,107 @@
 package com.dataprocessor.server.services;
 
+import com.dataprocessor.server.entities.GenericResponse;
+import com.dataprocessor.server.entities.ImportManifest;
 import com.dataprocessor.server.entities.UploadDescriptor;
 import com.dataprocessor.server.entities.UploadMapping;
 import com.dataprocessor.server.repositories.*;
-import com.dataprocessor.server.utils.StringTransformer;
-import com.dataprocessor.server.utils.StringUtil;
-import com.dataprocessor.server.utils.csv.CsvUtil;
+import com.dataprocessor.server.utils.FairShareExecutor;
+import com.dataprocessor.server.utils.TempFileUtil;
 import com.dataprocessor.server.utils.json.JSON;
 import com.dataprocessor.server.utils.tuples.Tuple2;
+import com.dataprocessor.server.utils.csv.CsvUtil;
+import org.apache.commons.io.input.TeeInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.io.File;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 @Service
 public final class UploadsService {
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final UploadRepository repository;
     private final IndexManager indexManager;
+    private final ColumnsRepository columnsRepository;
     private final SourceFilesRepository sourceFilesRepository;
+    private final ExportsRepository exportsRepository;
     private final RecordValidationUtilService recordValidationUtilService;
+    private final IngestionMetrics metrics;
+    private final BatchCommitter committer;
+    private final StorageEngine storageEngine;
+    //Shared by every running upload, so concurrent uploads split the writers instead of each adding its own
+    private final FairShareExecutor writerPool;
+    private final long interactiveMaxRows;
+    private final int writersCount;
+    private final int queueCapacity;
+    private final int batchInitialRows;
+    private final int batchMinRows;
+    private final int batchMaxRows;
+    private final int batchMaxValues;
+    private final long batchTargetLatencyMillis;
+    private final boolean sharedValueNodes;
+    private final boolean deferNewColumnIndexes;
+    private final long indexOnlineTimeoutSeconds;
+    private volatile Consumer<UploadDescriptor> suspendedListener = descriptor -> {};
 
     @Autowired
     public UploadsService(final UploadRepository repository,
                           final IndexManager indexManager,
+                          final ColumnsRepository columnsRepository,
                           final SourceFilesRepository sourceFilesRepository,
-                          final RecordValidationUtilService recordValidationUtilService){
+                          final ExportsRepository exportsRepository,
+                          final RecordValidationUtilService recordValidationUtilService,
+                          final IngestionMetrics metrics,
+                          final BatchCommitter committer,
+                          final StorageEngine storageEngine,
+                          @Value("${ingestion.scheduler.writers:8}") final int poolSize,
+                          @Value("${ingestion.scheduler.interactiveMaxRows:1000000}") final long interactiveMaxRows,
+                          @Value("${ingestion.writers:4}") final int writersCount,
+                          @Value("${ingestion.queueCapacity:10000}") final int queueCapacity,
+                          @Value("${ingestion.batch.initialRows:100}") final int batchInitialRows,
+                          @Value("${ingestion.batch.minRows:10}") final int batchMinRows,
+                          @Value("${ingestion.batch.maxRows:5000}") final int batchMaxRows,
+                          @Value("${ingestion.batch.maxValues:50000}") final int batchMaxValues,
+                          @Value("${ingestion.batch.targetLatencyMs:1000}") final long batchTargetLatencyMillis,
+                          @Value("${ingestion.sharedValueNodes:false}") final boolean sharedValueNodes,
+                          @Value("${ingestion.deferNewColumnIndexes:false}") final boolean deferNewColumnIndexes,
+                          @Value("${ingestion.indexOnlineTimeoutSeconds:600}") final long indexOnlineTimeoutSeconds){
         this.repository = repository;
         this.indexManager = indexManager;
+        this.columnsRepository = columnsRepository;
         this.sourceFilesRepository = sourceFilesRepository;
+        this.exportsRepository = exportsRepository;
         this.recordValidationUtilService = recordValidationUtilService;
+        this.metrics = metrics;
+        this.committer = committer;
+        this.storageEngine = storageEngine;
+        this.writerPool = new FairShareExecutor(poolSize);
+        this.interactiveMaxRows = interactiveMaxRows;
+        this.writersCount = Math.max(1, writersCount);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.batchInitialRows = batchInitialRows;
+        this.batchMinRows = batchMinRows;
+        this.batchMaxRows = batchMaxRows;
+        this.batchMaxValues = batchMaxValues;
+        this.batchTargetLatencyMillis = batchTargetLatencyMillis;
+        this.sharedValueNodes = sharedValueNodes;
+        this.deferNewColumnIndexes = deferNewColumnIndexes;
+        this.indexOnlineTimeoutSeconds = indexOnlineTimeoutSeconds;
     }
 
-    private final int bulkSize = 100;
-
-    public final UploadDescriptor continueIngestion(final String uploadName){
+    //Returns the running pipeline, or null when the upload can not be resumed. Throws SERVICE_UNAVAILABLE when its
+    //source file can not be read right now, the upload is left as it is to be resumed later.
+    public final IngestionPipeline continueIngestion(final String uploadName){
         final UploadDescriptor uploadDescriptor = getUploadDescriptorByName(uploadName);
         if (uploadDescriptor == null){
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload with name '" + uploadName + "' not found.");
@@ -51,61 +111,41 @@ public final class UploadsService {
             logger.warn("Upload status is finished.");
             return null;
         }
-        final File file;
-        try {
-            file = sourceFilesRepository.getSourceFile(uploadName);
-        }catch (final Throwable cause){
-            repository.completeUploadWithError(uploadDescriptor);
-            logger.warn("Source file not found.", cause);
-            return null;
+        //The engine may hold rows past the upload's checkpoint when updating it failed after they were committed
+        final Tuple2<Long, Long> committed = storageEngine.checkpointOf(uploadName);
+        if (committed != null && committed.v1 > uploadDescriptor.processed){
+            uploadDescriptor.processed = committed.v1;
+            uploadDescriptor.checkpointOffset = committed.v2;
         }
-        ensureMappingIndexes(uploadDescriptor.mappings);
-        final CsvUtil.CsvIterator iterator = CsvUtil.parseCsv(file, true);
-        for (long i=0; i < uploadDescriptor.processed; i++){
-            if (iterator.hasNext()){
-                iterator.next();
-            }else {
-                try{iterator.close();}catch (final Throwable ignored){}
-                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Upload with name '" + uploadName + "' has wrong size.");
+        final CsvUtil.CsvIterator iterator;
+        try {
+            final long size = sourceFilesRepository.getSourceFileSize(uploadName);
+            final byte[] head = sourceFilesRepository.readSourceFileHead(uploadName, CsvUtil.SAMPLE_BYTES);
+            //Seek straight to the checkpoint with a ranged read. Uploads without one are re-parsed up to 'processed'.
+            final long offset = uploadDescriptor.checkpointOffset > 0 && uploadDescriptor.checkpointOffset < size ? uploadDescriptor.checkpointOffset : 0;
+            iterator = CsvUtil.resumeCsv(head, sourceFilesRepository.openSourceFile(uploadName, offset), size, offset, uploadDescriptor.processed);
+        }catch (final ResponseStatusException cause){
+            if (!HttpStatus.NOT_FOUND.equals(cause.getStatusCode())){
+                //E.g. MinIO is down or timed out. The upload stays PROCESSING and the resume scheduler retries it.
+                logger.warn("Source file of upload '{}' is not available, leaving it to a later resume.", uploadName, cause);
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Source file of upload '" + uploadName + "' is not available.", cause);
             }
-        }
-        Thread.startVirtualThread(()->{
+            //E.g. a streamed upload interrupted before its source object was complete. Without the source the upload
+            //can not be resumed, so the rows it committed are removed rather than left half searchable.
+            logger.warn("Source file of upload '{}' not found, deleting its partial rows.", uploadName, cause);
             try {
-                final List<List<Tuple2<String, String>>> recordsBuffer = new ArrayList<>(bulkSize+16);
-                while (iterator.hasNext()){
-                    final CsvUtil.CsvRecord record = iterator.next();
-                    final List<Tuple2<String, String>> records = new ArrayList<>(uploadDescriptor.mappings.size());
-                    for(final UploadMapping mapping : uploadDescriptor.mappings){
-                        final StringBuilder sb = new StringBuilder(128);
-                        //Iterate over source columns as more than one is allowed (e.g. first and last name)
-                        for (int i = 0; i < mapping.sourceColumns.size() - 1; i++) {
-                            sb.append(recordValidationUtilService.extractAndValidate(record, mapping.sourceColumns.get(i), mapping.transformations)).append(" ");
-                        }
-                        sb.append(recordValidationUtilService.extractAndValidate(record, mapping.sourceColumns.getLast(), mapping.transformations));
-
-                        final String resultValue = StringTransformer.transform(sb.toString(), mapping.transformations);
-                        if (!StringUtil.isNullOrBlank(resultValue)){
-                            records.add(new Tuple2<>(mapping.destinationColumn, resultValue));
-                        }
-                    }
-                    if (recordsBuffer.size() < bulkSize){
-                        recordsBuffer.add(records);
-                    }else{
-                        repository.addRecords(uploadDescriptor, iterator, recordsBuffer);
-                        recordsBuffer.clear();
-                    }
-                }
-                repository.addRecords(uploadDescriptor, iterator, recordsBuffer);
-                recordsBuffer.clear();
-                repository.completeUploadWithSuccess(uploadDescriptor);
-            }catch (final Throwable cause){
-                logger.warn("Failure while ingesting upload '{}'", uploadName, cause);
-                repository.completeUploadWithError(uploadDescriptor);
-            }finally {
-                try{iterator.close();}catch (final Throwable ignored){}
+                storageEngine.deleteRows(uploadDescriptor);
+            }catch (final Throwable deleteCause){
+                logger.error("Failed to delete the partial rows of upload '{}'.", uploadName, deleteCause);
             }
-        });
-        return uploadDescriptor;
+            repository.completeUploadWithError(uploadDescriptor);
+            return null;
+        }catch (final Throwable cause){
+            repository.completeUploadWithError(uploadDescriptor);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to resume upload with name '" + uploadName + "'.", cause);
+        }
+        ensureMappingIndexes(uploadDescriptor.mappings, uploadDescriptor.sharedValues, deferNewColumnIndexes);
+        return startPipeline(uploadDescriptor, iterator, IngestionPipeline.Priority.BULK);
     }
 
     private final boolean validateCsvAndMappings(final CsvUtil.CsvIterator iterator, final List<UploadMapping> mappings){
@@ -132,9 +172,10 @@ public final class UploadsService {
     public final UploadDescriptor ingest(final File file,
                                          final String uploadName,
                                          final List<UploadMapping> mappings){
+        recordValidationUtilService.checkValidators(mappings);
         final CsvUtil.CsvIterator iterator = openIterator(file, uploadName);
-        ensureMappingIndexes(mappings);
-        final UploadDescriptor uploadDescriptor = repository.createUpload(uploadName, mappings, iterator);
+        ensureMappingIndexes(mappings, sharedValueNodes, deferNewColumnIndexes);
+        final UploadDescriptor uploadDescriptor = repository.createUpload(uploadName, mappings, iterator, sharedValueNodes);
         sourceFilesRepository.saveSourceFile(uploadDescriptor.name, file);
         if (!validateCsvAndMappings(iterator, mappings)){
             logger.warn("Failed to validate mappings with header: '{}'", uploadName);
@@ -142,45 +183,173 @@ public final class UploadsService {
             try{iterator.close();}catch (final Throwable ignored){}
             return repository.getUploadByName(uploadDescriptor.name);
         }
+        startPipeline(uploadDescriptor, iterator, priorityOf(iterator));
+        return uploadDescriptor;
+    }
+
+    //Runs the mappings and validators over the file like ingest() does, but writes 'neo4j-admin database import' files
+    //to '<destination>/' in the exports bucket instead of the database. The manifest is saved last, once it exists the set is complete.
+    public final GenericResponse writeImportFiles(final File file,
+                                                  final String uploadName,
+                                                  final List<UploadMapping> mappings,
+                                                  final String destination){
+        recordValidationUtilService.checkValidators(mappings);
+        final String manifestName = destination + "/manifest.json";
+        if (exportsRepository.doesFileExist(manifestName)){
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Import files '" + destination + "' already exist");
+        }
+        final CsvUtil.CsvIterator iterator = CsvUtil.parseCsv(file, true);
+        if (!validateCsvAndMappings(iterator, mappings)){
+            try{iterator.close();}catch (final Throwable ignored){}
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Mappings do not match the header of '" + uploadName + "'.");
+        }
         Thread.startVirtualThread(()->{
+            final MappingPlan plan = MappingPlan.compile(mappings, iterator.getHeaderMap(), recordValidationUtilService);
+            final MappingPlan.Stats stats = new MappingPlan.Stats();
+            ImportFilesWriter writer = null;
             try {
-                final List<List<Tuple2<String, String>>> recordsBuffer = new ArrayList<>(bulkSize+16);
+                writer = new ImportFilesWriter(uploadName, mappings, sharedValueNodes);
                 while (iterator.hasNext()){
                     final CsvUtil.CsvRecord record = iterator.next();
-                    final List<Tuple2<String, String>> records = new ArrayList<>(mappings.size());
-                    for(final UploadMapping mapping : mappings){
-                        final StringBuilder sb = new StringBuilder(128);
-                        //Iterate over source columns as more than one is allowed (e.g. first and last name)
-                        for (int i = 0; i < mapping.sourceColumns.size() - 1; i++) {
-                            sb.append(recordValidationUtilService.extractAndValidate(record, mapping.sourceColumns.get(i), mapping.transformations)).append(" ");
-                        }
-
-                        sb.append(recordValidationUtilService.extractAndValidate(record, mapping.sourceColumns.getLast(), mapping.transformations));
-                        final String resultValue = StringTransformer.transform(sb.toString(), mapping.transformations);
-                        if (!StringUtil.isNullOrBlank(resultValue)){
-                            records.add(new Tuple2<>(mapping.destinationColumn, resultValue));
-                        }
-                    }
-                    if (recordsBuffer.size() < bulkSize){
-                        recordsBuffer.add(records);
-                    }else{
-                        repository.addRecords(uploadDescriptor, iterator, recordsBuffer);
-                        recordsBuffer.clear();
+                    if (record != null){
+                        writer.write(plan.apply(record, stats));
                     }
                 }
-                repository.addRecords(uploadDescriptor, iterator, recordsBuffer);
-                recordsBuffer.clear();
-                repository.completeUploadWithSuccess(uploadDescriptor);
+                metrics.rejectedCells(stats.rejectedCells);
+                final ImportManifest manifest = writer.finish(iterator.timeStamp());
+                for(final Map.Entry<String, File> e : writer.getFiles().entrySet()){
+                    exportsRepository.saveFile(destination + "/" + e.getKey(), e.getValue());
+                }
+                final File manifestFile = TempFileUtil.createTmpFile(".json");
+                Files.writeString(manifestFile.toPath(), JSON.toPrettyJson(manifest), StandardCharsets.UTF_8);
+                exportsRepository.saveFile(manifestName, manifestFile);
+                logger.info("Import files of '{}' written to '{}'. Rows: {}, values: {}.", uploadName, destination, manifest.rows, manifest.values);
             }catch (final Throwable cause){
-                logger.warn("Failure while ingesting upload '{}'", uploadName, cause);
-                repository.completeUploadWithError(uploadDescriptor);
+                logger.error("Failed to write import files of '{}'.", uploadName, cause);
+                if (writer != null){
+                    try{writer.close();}catch (final Throwable ignored){}
+                    writer.getFiles().values().forEach(File::delete);
+                }
             }finally {
                 try{iterator.close();}catch (final Throwable ignored){}
+                if (!file.delete()){
+                    logger.warn("Failed to delete temp file: {}", file.getAbsolutePath());
+                }
+            }
+        });
+        return GenericResponse.builder()
+                .success(true)
+                .message("Import files are being written to '" + destination + "/'. The manifest is written last.")
+                .build();
+    }
+
+    //Ingests a request body while it streams in. The bytes go to the CSV parser and, through a pipe, to a MinIO
+    //multipart upload, so the file is never copied to local disk. Returns once the whole stream has been consumed.
+    //The source object only exists once the body ended, so an upload interrupted before can not be resumed: the
+    //resume deletes its partial rows and finishes it with an error, the client uploads it again under a new name.
+    public final UploadDescriptor ingest(final InputStream stream,
+                                         final long sizeHint,
+                                         final String uploadName,
+                                         final List<UploadMapping> mappings){
+        recordValidationUtilService.checkValidators(mappings);
+        if (getUploadDescriptorByName(uploadName) != null){
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload with name '" + uploadName + "' already exists");
+        }
+        final byte[] head;
+        final PipedInputStream sourceIn = new PipedInputStream(4 * CsvUtil.SAMPLE_BYTES);
+        final PipedOutputStream sourceOut;
+        try {
+            head = stream.readNBytes(CsvUtil.SAMPLE_BYTES);
+            sourceOut = new PipedOutputStream(sourceIn);
+            //Fits into the pipe buffer, so it never blocks before the MinIO reader starts
+            sourceOut.write(head);
+        }catch (final Throwable cause){
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to read upload '" + uploadName + "'.", cause);
+        }
+        final long size = head.length < CsvUtil.SAMPLE_BYTES ? head.length : sizeHint;
+        final InputStream tee = new TeeInputStream(stream, sourceOut){
+            //Close the pipe from the parsing thread as soon as the body ends, a pipe whose writer thread is gone counts as broken
+            @Override
+            public final int read() throws IOException {
+                final int res = super.read();
+                if (res < 0){
+                    sourceOut.close();
+                }
+                return res;
+            }
+            @Override
+            public final int read(final byte[] b, final int off, final int len) throws IOException {
+                final int res = super.read(b, off, len);
+                if (res < 0){
+                    sourceOut.close();
+                }
+                return res;
+            }
+        };
+        final CsvUtil.CsvIterator iterator = CsvUtil.parseCsv(head, new SequenceInputStream(new ByteArrayInputStream(head), tee), size);
+        ensureMappingIndexes(mappings, sharedValueNodes, deferNewColumnIndexes);
+        final UploadDescriptor uploadDescriptor = repository.createUpload(uploadName, mappings, iterator, sharedValueNodes);
+        if (!validateCsvAndMappings(iterator, mappings)){
+            logger.warn("Failed to validate mappings with header: '{}'", uploadName);
+            repository.completeUploadWithError(uploadDescriptor);
+            try{iterator.close();}catch (final Throwable ignored){}
+            return repository.getUploadByName(uploadDescriptor.name);
+        }
+        final Thread sourceWriter = Thread.startVirtualThread(()->{
+            try {
+                sourceFilesRepository.saveSourceFile(uploadDescriptor.name, sourceIn);
+            }finally {
+                try{sourceIn.close();}catch (final Throwable ignored){}
             }
         });
+        final IngestionPipeline pipeline = startPipeline(uploadDescriptor, iterator, priorityOf(iterator));
+        try {
+            pipeline.awaitParsed();
+            sourceOut.close();
+            sourceWriter.join();
+        }catch (final Throwable cause){
+            logger.warn("Failed to stream upload '{}'", uploadName, cause);
+        }
+        if (pipeline.isFailed()){
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to ingest upload '" + uploadName + "'.");
+        }
         return uploadDescriptor;
     }
 
+    //New uploads up to 'interactiveMaxRows' (estimated) are interactive. Resumed uploads are always bulk.
+    private final IngestionPipeline.Priority priorityOf(final CsvUtil.CsvIterator iterator){
+        final long totalRows = iterator.getTotalRows();
+        return totalRows >= 0 && totalRows <= interactiveMaxRows ? IngestionPipeline.Priority.INTERACTIVE : IngestionPipeline.Priority.BULK;
+    }
+
+    private final IngestionPipeline startPipeline(final UploadDescriptor uploadDescriptor,
+                                                  final CsvUtil.CsvIterator iterator,
+                                                  final IngestionPipeline.Priority priority){
+        return new IngestionPipeline(repository,
+                committer,
+                recordValidationUtilService,
+                uploadDescriptor,
+                iterator,
+                new AdaptiveBatchSizer(uploadDescriptor.batchSize > 0 ? uploadDescriptor.batchSize : batchInitialRows,
+                        batchMinRows,
+                        batchMaxRows,
+                        batchMaxValues,
+                        batchTargetLatencyMillis,
+                        uploadDescriptor.mappings.size()),
+                writerPool,
+                priority,
+                writersCount,
+                queueCapacity,
+                metrics,
+                ()-> awaitMappingIndexes(uploadDescriptor),
+                descriptor -> suspendedListener.accept(descriptor)).start();
+    }
+
+    //Uploads suspended because the storage is not available stay PROCESSING, the listener resumes them later.
+    public final void onSuspended(final Consumer<UploadDescriptor> listener){
+        this.suspendedListener = listener;
+    }
+
     private final CsvUtil.CsvIterator openIterator(final File file, final String uploadName){
         if (getUploadDescriptorByName(uploadName) != null){
             throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload with name '" + uploadName + "' already exists");
@@ -193,10 +362,73 @@ public final class UploadsService {
         return iterator;
     }
 
-    private final void ensureMappingIndexes(final List<UploadMapping> mappings){
+    //Returns the names of the indexes backing the mappings. With 'deferNewColumns', columns that do not exist yet get
+    //no index until the upload finished, so a first time bulk load does not pay for index maintenance on every write.
+    private final List<String> ensureMappingIndexes(final List<UploadMapping> mappings, final boolean sharedValues, final boolean deferNewColumns){
+        final List<String> indexNames = new ArrayList<>(mappings.size() * 2);
+        //Writers merge the values of every column with a uniqueness constraint, so learn about constraints made elsewhere
+        indexManager.refreshCatalog();
+        //Merging shared value nodes needs the index from the first batch
+        final List<String> existingColumns = deferNewColumns && !sharedValues ? columnsRepository.listAllColumn() : null;
+        for(final UploadMapping mapping : mappings){
+            if (existingColumns != null && !existingColumns.contains(mapping.destinationColumn)){
+                logger.info("Deferring indexes of new column '{}' until the upload finished.", mapping.destinationColumn);
+                continue;
+            }
+            //Shared value nodes are merged, the constraint both indexes the value and serializes concurrent merges of it
+            if (sharedValues && indexManager.ensureUniqueConstraint("U" + mapping.destinationColumn + "Value", mapping.destinationColumn, "value")){
+                indexNames.add("U" + mapping.destinationColumn + "Value");
+                continue;
+            }
+            if (sharedValues){
+                logger.warn("Column '{}' already holds duplicate values, its values are written per row instead of shared.", mapping.destinationColumn);
+            }
+            addValueIndex(indexNames, mapping.destinationColumn, IndexManager.IndexKind.RANGE);
+        }
         for(final UploadMapping mapping : mappings){
-            indexManager.ensureIndex("I" + mapping.destinationColumn + "Index", mapping.destinationColumn, "value");
+            if (existingColumns != null && !existingColumns.contains(mapping.destinationColumn))
+                continue;
+            //Searches never create indexes. A column gets its TEXT index once it was searched by substring, or when the
+            //mapping asks for it, rather than every column paying for trigram maintenance on each write.
+            if (mapping.textIndex
+                    || indexManager.effectiveIndex(mapping.destinationColumn, IndexManager.IndexKind.TEXT) != null
+                    || indexManager.isSearched(mapping.destinationColumn, IndexManager.IndexKind.TEXT)){
+                addValueIndex(indexNames, mapping.destinationColumn, IndexManager.IndexKind.TEXT);
+            }
+            if (mapping.reversed){
+                addValueIndex(indexNames, mapping.destinationColumn, IndexManager.IndexKind.REVERSED);
+                columnsRepository.enableReversedValues(mapping.destinationColumn);
+            }
+        }
+        return indexNames;
+    }
+
+    //The index that serves the column may have another name, e.g. the index of its shared value constraint.
+    private final void addValueIndex(final List<String> indexNames, final String column, final IndexManager.IndexKind kind){
+        final String indexName = indexManager.ensureValueIndex(column, kind);
+        if (indexName != null && !indexNames.contains(indexName)){
+            indexNames.add(indexName);
+        }
+    }
+
+    private final void awaitMappingIndexes(final UploadDescriptor uploadDescriptor){
+        final List<String> indexNames = ensureMappingIndexes(uploadDescriptor.mappings, uploadDescriptor.sharedValues, false);
+        if (!indexManager.awaitOnline(indexNames, indexOnlineTimeoutSeconds)){
+            logger.warn("Indexes of upload '{}' are not online yet, searches may scan until they are.", uploadDescriptor.name);
+        }
+    }
+
+    //Commits the rows that were dead lettered while ingesting the upload, e.g. once the cause is fixed.
+    public final GenericResponse replayDeadLetters(final String uploadName){
+        final UploadDescriptor uploadDescriptor = getUploadDescriptorByName(uploadName);
+        if (uploadDescriptor == null){
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload with name '" + uploadName + "' not found.");
         }
+        final int replayed = committer.replay(uploadDescriptor);
+        return GenericResponse.builder()
+                .success(true)
+                .message("Replayed " + replayed + " rows of upload '" + uploadName + "'.")
+                .build();
     }
 
     public final UploadDescriptor getUploadDescriptorByName(final String name){
@@ -51,7 +51,7 @@ public final class BlockingExecutor {
             }finally {
                 executionsCounter.decrementAndGet();
                 synchronized (monitor){
-                    monitor.notify();
+                    monitor.notifyAll();
                 }
             }
         });
@@ -59,7 +59,7 @@ public final class BlockingExecutor {
 
     public final void close(){
         if (!isClosing.getAndSet(true)){
-            while (executionsCounter.incrementAndGet() > 0){
+            while (executionsCounter.get() > 0){
                 synchronized (monitor){
                     monitor.notifyAll();
                 }
@@ -0,0 +1,154 @@
+package com.dataprocessor.server.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+//A fixed number of concurrent task slots shared between registered shares in proportion to their weights
+//(start-time fair queuing over task costs). Like BlockingExecutor, submitting blocks once a share has too many
+//pending tasks, so producers are throttled to the share they actually get.
+public final class FairShareExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(FairShareExecutor.class);
+
+    private final int concurrencyLevel;
+    private final Object monitor;
+    private final List<Share> shares;
+    private int running;
+    private double virtualTime;
+
+    public FairShareExecutor(final int concurrencyLevel){
+        this.concurrencyLevel = Math.max(1, concurrencyLevel);
+        this.monitor = new Object();
+        this.shares = new ArrayList<>(16);
+        logger.info("FairShareExecutor started. Concurrency level: {}.", this.concurrencyLevel);
+    }
+
+    public final Share register(final String name,
+                                final double weight,
+                                final int maxPending,
+                                final BlockingExecutor.ExceptionHandler exceptionHandler){
+        final Share share = new Share(name, weight, maxPending, exceptionHandler);
+        synchronized (monitor){
+            shares.add(share);
+        }
+        return share;
+    }
+
+    //Must hold the monitor. Starts queued tasks, lowest start tag first, while slots are free.
+    private final void dispatch(){
+        while (running < concurrencyLevel){
+            Share next = null;
+            double nextStart = Double.MAX_VALUE;
+            for(final Share share : shares){
+                if (share.queue.isEmpty())
+                    continue;
+                final double start = Math.max(virtualTime, share.lastFinish);
+                if (start < nextStart){
+                    nextStart = start;
+                    next = share;
+                }
+            }
+            if (next == null)
+                return;
+
+            final Task task = next.queue.poll();
+            //Shares that were idle restart at the current virtual time, so idling earns no credit
+            next.lastFinish = nextStart + task.cost / next.weight;
+            virtualTime = nextStart;
+            running++;
+            final Share owner = next;
+            Thread.startVirtualThread(()->{
+                try{
+                    task.runnable.run();
+                }catch (final Throwable cause){
+                    owner.exceptionHandler.onException(cause);
+                }finally {
+                    synchronized (monitor){
+                        running--;
+                        owner.pending--;
+                        dispatch();
+                        monitor.notifyAll();
+                    }
+                }
+            });
+        }
+    }
+
+    public final class Share{
+        private final String name;
+        private final double weight;
+        private final int maxPending;
+        private final BlockingExecutor.ExceptionHandler exceptionHandler;
+        private final ArrayDeque<Task> queue = new ArrayDeque<>();
+        private double lastFinish;
+        private int pending;
+        private boolean closing;
+
+        private Share(final String name, final double weight, final int maxPending, final BlockingExecutor.ExceptionHandler exceptionHandler){
+            this.name = name;
+            this.weight = Math.max(0.001, weight);
+            this.maxPending = Math.max(1, maxPending);
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        //'cost' is the amount of work in the task, e.g. rows in a batch.
+        public final void execute(final Runnable task, final long cost){
+            synchronized (monitor){
+                while (pending >= maxPending && !closing){
+                    try {monitor.wait(1000);}catch (final Throwable ignored){}
+                }
+                if (closing)
+                    return;
+                pending++;
+                queue.add(new Task(task, Math.max(1, cost)));
+                dispatch();
+            }
+        }
+
+        public final void awaitIdle(){
+            synchronized (monitor){
+                while (pending > 0){
+                    try {monitor.wait(100);}catch (final Throwable ignored){}
+                }
+            }
+        }
+
+        //Drops queued tasks, waits for the running ones and leaves the executor.
+        public final void close(){
+            synchronized (monitor){
+                if (closing)
+                    return;
+                closing = true;
+                pending -= queue.size();
+                queue.clear();
+                monitor.notifyAll();
+                while (pending > 0){
+                    try {monitor.wait(100);}catch (final Throwable ignored){}
+                }
+                shares.remove(this);
+            }
+        }
+
+        @Override
+        public final String toString() {
+            return "Share{" +
+                    "name='" + name + '\'' +
+                    ", weight=" + weight +
+                    ", pending=" + pending +
+                    '}';
+        }
+    }
+
+    private static final class Task{
+        private final Runnable runnable;
+        private final long cost;
+
+        private Task(final Runnable runnable, final long cost){
+            this.runnable = runnable;
+            this.cost = cost;
+        }
+    }
+}
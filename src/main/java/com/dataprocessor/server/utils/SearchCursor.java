@@ -0,0 +1,37 @@
+package com.dataprocessor.server.utils;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+//Opaque continuation token of a search: the id of the last row returned, bound to the signature of the search so a
+//token is never replayed against different parameters.
+public final class SearchCursor {
+    private static final char SEPARATOR = '\n';
+
+    public static final String encode(final String searchSignature, final String lastRowId){
+        return Base64.getUrlEncoder().withoutPadding().encodeToString((searchSignature + SEPARATOR + lastRowId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    //Returns the id of the row to continue after, null without a token, or "" for an empty token, which starts a walk
+    //from the first row.
+    public static final String decode(final String searchSignature, final String token){
+        if (token == null)
+            return null;
+        if (token.isBlank())
+            return "";
+        final String decoded;
+        try {
+            decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        }catch (final IllegalArgumentException cause){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed cursor.", cause);
+        }
+        final int separator = decoded.indexOf(SEPARATOR);
+        if (separator < 0 || !decoded.substring(0, separator).equals(searchSignature)){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Cursor does not belong to this search.");
+        }
+        return decoded.substring(separator + 1);
+    }
+}
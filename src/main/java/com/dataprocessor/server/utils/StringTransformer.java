@@ -1,46 +1,243 @@
 package com.dataprocessor.server.utils;
 
 import java.util.List;
-import java.util.StringTokenizer;
+import java.util.Locale;
 
 public class StringTransformer {
     public static enum Transformation{
         TLC, TUC, TRIM, NRM
     }
 
+    private static final int LOWER = 1;
+    private static final int UPPER = 2;
+    private static final int TRIM = 4;
+    private static final int NORMALIZE = 8;
+    //Number of alternating case changes in the list, stored above the other flags
+    private static final int CASE_STEP = 1 << 8;
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+    private static final ThreadLocal<char[]> buffers = ThreadLocal.withInitial(() -> new char[256]);
+
     public static final String transform(final String src, final List<Transformation> transformations){
-        String result = src==null?"":src;
+        return transform(src, flags(transformations));
+    }
+
+    //Resolves a transformations list once, so hot loops do not iterate it per value.
+    public static final Compiled compile(final List<Transformation> transformations){
+        return new Compiled(flags(transformations));
+    }
+
+    public static final class Compiled{
+        private final int flags;
+
+        private Compiled(final int flags){
+            this.flags = flags;
+        }
+
+        public final String apply(final String src){
+            return transform(src, flags);
+        }
+
+        //Result is either 'src' itself or a view of a per-thread buffer that stays valid until the next call on the same thread.
+        public final CharSequence apply(final CharSequence src){
+            return transformView(src, flags);
+        }
+    }
+
+    //Case changes never create or remove whitespace and quotes, so they commute with TRIM and NRM and one scan applies
+    //them all. For ASCII only the last of TLC and TUC matters, other characters get every case change in order, e.g.
+    //'ß' becomes 'ss' with TUC then TLC.
+    private static final int flags(final List<Transformation> transformations){
+        int flags = 0;
         for (final Transformation transformation : transformations) {
             switch (transformation) {
-                case TLC -> result = result.toLowerCase();
-                case TUC -> result = result.toUpperCase();
-                case TRIM -> result = result.trim();
-                case NRM -> result = normalize(result);
+                case TLC -> flags = caseStep(flags, LOWER);
+                case TUC -> flags = caseStep(flags, UPPER);
+                case TRIM -> flags |= TRIM;
+                case NRM -> flags |= NORMALIZE;
             }
         }
-        return result;
+        return flags;
+    }
+
+    //A case change repeating the previous one changes nothing.
+    private static final int caseStep(final int flags, final int caseFlag){
+        if ((flags & caseFlag) != 0)
+            return flags;
+        return ((flags & ~(LOWER | UPPER)) | caseFlag) + CASE_STEP;
+    }
+
+    private static final String transform(final String src, final int flags){
+        final String source = src == null ? "" : src;
+        if (flags == 0)
+            return source;
+
+        final char[] buffer = buffer(source.length());
+        final int length = scan(source, flags, buffer);
+        if (length < 0)
+            return caseFallback(source, buffer, -length - 1, flags);
+        if (sameContent(source, buffer, length))
+            return source;
+        return new String(buffer, 0, length);
+    }
+
+    private static final CharSequence transformView(final CharSequence src, final int flags){
+        final CharSequence source = src == null ? "" : src;
+        if (flags == 0)
+            return source;
+
+        final char[] buffer = buffer(source.length());
+        final int length = scan(source, flags, buffer);
+        if (length < 0)
+            return caseFallback(source, buffer, -length - 1, flags);
+        if (sameContent(source, buffer, length))
+            return source;
+        return new CharArrayView(buffer, 0, length);
+    }
+
+    private static final char[] buffer(final int length){
+        final char[] buffer = buffers.get();
+        if (buffer.length >= length)
+            return buffer;
+
+        final char[] grown = new char[Math.max(length, buffer.length * 2)];
+        if (grown.length <= MAX_RETAINED_BUFFER){
+            buffers.set(grown);
+        }
+        return grown;
     }
 
-    private static final String trimQuotes(final String string){
-        String res = string.trim();
-        while (res.startsWith("'") || res.startsWith("\"")){
-            res = res.substring(1).trim();
+    //Writes the result into 'buffer' and returns its length, or (-length - 1) when a case change met a character the
+    //ASCII fast path can not handle.
+    private static final int scan(final CharSequence src, final int flags, final char[] buffer){
+        final int n = src.length();
+        final int caseFlags = asciiCaseSafe() ? flags & (LOWER | UPPER) : 0;
+        boolean fallback = (flags & (LOWER | UPPER)) != 0 && caseFlags == 0;
+        int begin = 0;
+        int end = n;
+        if ((flags & (TRIM | NORMALIZE)) != 0){
+            while (begin < end && src.charAt(begin) <= ' ') begin++;
+            while (end > begin && src.charAt(end - 1) <= ' ') end--;
         }
-        while (res.endsWith("'") || res.endsWith("\"")){
-            res = res.substring(0, res.length()-1).trim();
+        int out = 0;
+        if ((flags & NORMALIZE) == 0){
+            for (int i = begin; i < end; i++) {
+                final char c = src.charAt(i);
+                fallback |= c >= 0x80 && (flags & (LOWER | UPPER)) != 0;
+                buffer[out++] = changeCase(c, caseFlags);
+            }
+        }else{
+            //Whitespace separated tokens with surrounding quotes stripped, joined by single spaces
+            int i = begin;
+            while (i < end){
+                while (i < end && isTokenDelimiter(src.charAt(i))) i++;
+                int tokenStart = i;
+                while (i < end && !isTokenDelimiter(src.charAt(i))) i++;
+                int tokenEnd = i;
+                while (tokenStart < tokenEnd && isQuoteOrSpace(src.charAt(tokenStart))) tokenStart++;
+                while (tokenEnd > tokenStart && isQuoteOrSpace(src.charAt(tokenEnd - 1))) tokenEnd--;
+                if (isBlank(src, tokenStart, tokenEnd))
+                    continue;
+
+                if (out > 0){
+                    buffer[out++] = ' ';
+                }
+                for (int j = tokenStart; j < tokenEnd; j++) {
+                    final char c = src.charAt(j);
+                    fallback |= c >= 0x80 && (flags & (LOWER | UPPER)) != 0;
+                    buffer[out++] = changeCase(c, caseFlags);
+                }
+            }
         }
+        return fallback ? -out - 1 : out;
+    }
+
+    private static final String caseFallback(final CharSequence src, final char[] buffer, final int length, final int flags){
+        String res = new String(buffer, 0, length);
+        //The changes alternate and end with the last one
+        final int steps = flags / CASE_STEP;
+        int caseFlag = steps % 2 == 1 ? flags & (LOWER | UPPER) : (flags & (LOWER | UPPER)) ^ (LOWER | UPPER);
+        for (int i = 0; i < steps; i++) {
+            res = caseFlag == LOWER ? res.toLowerCase() : res.toUpperCase();
+            caseFlag ^= LOWER | UPPER;
+        }
+        if (src instanceof String && res.contentEquals(src))
+            return (String) src;
         return res;
     }
 
-    private static final String normalize(final String str){
-        final StringTokenizer tokenizer = new StringTokenizer(str);
-        final StringBuilder sb = new StringBuilder(str.length());
-        while (tokenizer.hasMoreTokens()) {
-            final String token = trimQuotes(tokenizer.nextToken().trim());
-            if (!token.isBlank()){
-                sb.append(token).append(' ');
-            }
+    private static final boolean asciiCaseSafe(){
+        //Default locale case mappings of these languages differ from ASCII for 'i' and 'I'
+        final String language = Locale.getDefault().getLanguage();
+        return !language.equals("tr") && !language.equals("az") && !language.equals("lt");
+    }
+
+    private static final char changeCase(final char c, final int caseFlags){
+        if ((caseFlags & LOWER) != 0 && c >= 'A' && c <= 'Z')
+            return (char) (c + ('a' - 'A'));
+        if ((caseFlags & UPPER) != 0 && c >= 'a' && c <= 'z')
+            return (char) (c - ('a' - 'A'));
+        return c;
+    }
+
+    private static final boolean isTokenDelimiter(final char c){
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private static final boolean isQuoteOrSpace(final char c){
+        return c <= ' ' || c == '\'' || c == '"';
+    }
+
+    private static final boolean isBlank(final CharSequence src, final int from, final int to){
+        for (int i = from; i < to; i++) {
+            if (!Character.isWhitespace(src.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+    private static final boolean sameContent(final CharSequence src, final char[] buffer, final int length){
+        if (src.length() != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (src.charAt(i) != buffer[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static final class CharArrayView implements CharSequence{
+        private final char[] chars;
+        private final int offset;
+        private final int length;
+
+        private CharArrayView(final char[] chars, final int offset, final int length){
+            this.chars = chars;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public final int length() {
+            return length;
+        }
+
+        @Override
+        public final char charAt(final int index) {
+            if (index < 0 || index >= length)
+                throw new IndexOutOfBoundsException(index);
+            return chars[offset + index];
+        }
+
+        @Override
+        public final CharSequence subSequence(final int start, final int end) {
+            if (start < 0 || end > length || start > end)
+                throw new IndexOutOfBoundsException();
+            return new CharArrayView(chars, offset + start, end - start);
+        }
+
+        @Override
+        public final String toString() {
+            return new String(chars, offset, length);
         }
-        return sb.toString().trim();
     }
 }
@@ -1,5 +1,6 @@
 package com.dataprocessor.server.utils;
 
+import java.nio.charset.StandardCharsets;
 import java.util.UUID;
 
 public final class StringUtil {
@@ -20,7 +21,22 @@ public final class StringUtil {
         return string;
     }
 
+    //Same result as Cypher's reverse(), surrogate pairs are kept in order.
+    public static final String reverse(final String string){
+        return new StringBuilder(string).reverse().toString();
+    }
+
     public static final String generateId(){
         return UUID.randomUUID().toString().replace("-", "");
     }
+
+    //Derived from the row's position in the upload's source, so committing a batch again finds the rows it already wrote.
+    public static final String rowId(final String upload, final long row){
+        return UUID.nameUUIDFromBytes((upload + '\n' + row).getBytes(StandardCharsets.UTF_8)).toString().replace("-", "");
+    }
+
+    //Same for every occurrence of the value in the column, e.g. to write one shared value node per (column, value).
+    public static final String valueId(final String column, final String value){
+        return UUID.nameUUIDFromBytes((column + '\n' + value).getBytes(StandardCharsets.UTF_8)).toString().replace("-", "");
+    }
 }
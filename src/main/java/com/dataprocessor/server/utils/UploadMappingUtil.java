@@ -26,7 +26,28 @@ public final class UploadMappingUtil {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid mapping: '" + mapping + "'.");
         }
         final List<StringTransformer.Transformation> transformations = new ArrayList<>(5);
+        String validator = null;
+        boolean reversed = false;
+        boolean textIndex = false;
         for (int i = 2; i < split.length; i++) {
+            //'@name' selects a validator, e.g. 'contact:email:tlc:@email'
+            if (split[i].startsWith("@")){
+                if (validator != null || split[i].length() < 2){
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid mapping: '" + mapping + "'.");
+                }
+                validator = split[i].substring(1).toLowerCase();
+                continue;
+            }
+            //'rev' also stores the reversed value, so suffix searches on the column become indexed prefix lookups
+            if (split[i].equalsIgnoreCase("rev")){
+                reversed = true;
+                continue;
+            }
+            //'txt' indexes the column for substring searches up front, otherwise that index waits for the first such search
+            if (split[i].equalsIgnoreCase("txt")){
+                textIndex = true;
+                continue;
+            }
             try {
                 transformations.add(StringTransformer.Transformation.valueOf(split[i].toUpperCase()));
             }catch (final Throwable t){
@@ -36,7 +57,10 @@ public final class UploadMappingUtil {
         return new UploadMapping(
                 ListUtils.arrayToList(split[0].split("\\|")),
                 StringTransformer.transform(split[1], List.of(StringTransformer.Transformation.TLC, StringTransformer.Transformation.NRM)),
-                transformations);
+                transformations,
+                validator,
+                reversed,
+                textIndex);
     }
 
 }
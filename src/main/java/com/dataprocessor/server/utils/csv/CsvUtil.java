@@ -1,7 +1,6 @@
 package com.dataprocessor.server.utils.csv;
 
 import com.dataprocessor.server.utils.StringUtil;
-import com.dataprocessor.server.utils.json.JSON;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
@@ -9,34 +8,142 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 public final class CsvUtil {
 
+    public static final int SAMPLE_BYTES = 1024 * 1024;
+    private static final int SAMPLE_ROWS = 1000;
+
     public static final CsvIterator parseCsv(final File file, final boolean deleteFileOnClose){
         final Logger logger = LoggerFactory.getLogger("CsvParser");
-        final Map.Entry<CSVFormat, Integer> formatAndCount = csvAutodetectAndCountRows(file);
-        if (formatAndCount == null){
+        final Runnable onClose = ()->{
+            if (deleteFileOnClose) {
+                final boolean deleteRes = file.delete();
+                if (!deleteRes) {
+                    logger.warn("Failed to delete temp file: '{}'.", file.getAbsolutePath());
+                }
+            }
+        };
+        final byte[] head;
+        try (final InputStream is = new FileInputStream(file)) {
+            head = is.readNBytes(SAMPLE_BYTES);
+        }catch (final Throwable cause){
+            logger.error("Failed to open CSV.", cause);
+            throw new RuntimeException("Failed to open CSV.");
+        }
+        final FormatDetection detection = csvAutodetectFromSample(head, file.length());
+        if (detection == null){
             logger.error("Unknown csv format.");
             throw new RuntimeException("CSV format unknown.");
         }
+        final CSVFormat format = detection.format;
+        final String delimiter = format.getDelimiterString();
+        if (delimiter != null && delimiter.length() == 1
+                && MappedCsvIterator.supports(delimiter.charAt(0), format.getQuoteCharacter(), format.getEscapeCharacter(), format.getIgnoreSurroundingSpaces(), format.getTrim())){
+            try {
+                return new MappedCsvIterator(file,
+                        delimiter.charAt(0),
+                        format.getQuoteCharacter(),
+                        format.getIgnoreEmptyLines(),
+                        detection.header != null,
+                        decodeHeader(detection.header),
+                        detection.estimatedRows,
+                        detection.exact,
+                        onClose);
+            }catch (final Throwable cause){
+                logger.error("Failed to open CSV.", cause);
+                throw new RuntimeException("Failed to open CSV.");
+            }
+        }
+        final InputStream data;
+        try {
+            data = new FileInputStream(file);
+        }catch (final Throwable cause){
+            logger.error("Failed to open CSV.", cause);
+            throw new RuntimeException("Failed to open CSV.");
+        }
+        return open(detection, data, file.length(), 0, 0, onClose);
+    }
+
+    //Parses a stream whose first bytes were already read into 'head'; 'data' still starts at the beginning of the file.
+    //'totalSize' is only used for the rows estimate and may be -1 when unknown.
+    public static final CsvIterator parseCsv(final byte[] head, final InputStream data, final long totalSize){
+        return open(head, data, totalSize, 0, 0, ()->{});
+    }
+
+    //Continues parsing from a checkpoint. 'head' is the beginning of the file (used to detect format and header),
+    //'data' starts at byte 'offset' which must be a record boundary, and 'processed' records precede it.
+    //With no checkpoint (offset 0), 'processed' records are parsed and skipped instead.
+    public static final CsvIterator resumeCsv(final byte[] head,
+                                              final InputStream data,
+                                              final long totalSize,
+                                              final long offset,
+                                              final long processed){
+        return open(head, data, totalSize, offset, processed, ()->{});
+    }
+
+    private static final CsvIterator open(final byte[] head,
+                                          final InputStream data,
+                                          final long totalSize,
+                                          final long offset,
+                                          final long processed,
+                                          final Runnable onClose){
+        final FormatDetection detection = csvAutodetectFromSample(head, totalSize);
+        if (detection == null){
+            try{data.close();}catch (final Throwable ignored){}
+            LoggerFactory.getLogger("CsvParser").error("Unknown csv format.");
+            throw new RuntimeException("CSV format unknown.");
+        }
+        return open(detection, data, totalSize, offset, processed, onClose);
+    }
+
+    private static final CsvIterator open(final FormatDetection detection,
+                                          final InputStream data,
+                                          final long totalSize,
+                                          final long offset,
+                                          final long processed,
+                                          final Runnable onClose){
+        final Logger logger = LoggerFactory.getLogger("CsvParser");
+        final boolean seek = offset > 0;
+        final CountingInputStream _input;
         final CSVParser _csvParser;
         try {
-            _csvParser = new CSVParser(new BufferedReader(new FileReader(file)), formatAndCount.getKey());
+            _input = new CountingInputStream(data);
+            //ISO-8859-1 maps every byte to exactly one char, so record character positions are byte offsets into the file.
+            //Delimiters and quotes are ASCII, so the UTF-8 content is re-decoded per value when it is read.
+            final Reader reader = new BufferedReader(new InputStreamReader(_input, StandardCharsets.ISO_8859_1), 64 * 1024);
+            if (seek){
+                final CSVFormat format = detection.header == null ? detection.format : detection.format.builder()
+                        .setHeader(detection.header)
+                        .setSkipHeaderRecord(false)
+                        .build();
+                _csvParser = new CSVParser(reader, format, offset, processed);
+            }else{
+                _csvParser = new CSVParser(reader, detection.format);
+            }
         }catch (final Throwable cause){
+            try{data.close();}catch (final Throwable ignored){}
             logger.error("Failed to open CSV.", cause);
             throw new RuntimeException("Failed to open CSV.");
         }
+        final Map<String, Integer> _headerMap = seek ? decodeHeader(detection.header) : decodeHeader(_csvParser.getHeaderNames());
 
-        return new CsvIterator() {
+        final CsvIterator res = new CsvIterator() {
             private final long timeStamp = System.currentTimeMillis();
-            private final int rowsCount = formatAndCount.getValue();
+            private final CountingInputStream input = _input;
             private final CSVParser csvParser = _csvParser;
             private final Iterator<CSVRecord> iterator = _csvParser.iterator();
-            private long currentRow = 0;
+            private final Map<String, Integer> headerMap = _headerMap;
+            private final long startRow = seek ? processed : 0;
+            private final long startOffset = seek ? offset : 0;
+            private volatile long currentRow = startRow;
+            private volatile boolean exhausted = false;
 
             @Override
             public final long getCurrentRow() {
@@ -45,12 +152,25 @@ public final class CsvUtil {
 
             @Override
             public final long getTotalRows() {
-                return rowsCount;
+                if (exhausted)
+                    return currentRow;
+                if (detection.exact)
+                    return detection.estimatedRows;
+
+                //Refine the sampled estimate with the average row length observed so far
+                final long row = currentRow;
+                final long rowsRead = row - startRow;
+                final long bytesRead = input.getCount();
+                if (rowsRead < SAMPLE_ROWS || bytesRead <= 0 || totalSize <= 0)
+                    return Math.max(row, detection.estimatedRows);
+
+                final long remainingBytes = Math.max(0, totalSize - startOffset - bytesRead);
+                return row + (long) (remainingBytes * ((double) rowsRead / bytesRead));
             }
 
             @Override
             public final Map<String, Integer> getHeaderMap() {
-                return csvParser.getHeaderMap();
+                return headerMap;
             }
 
             @Override
@@ -73,16 +193,18 @@ public final class CsvUtil {
 
             @Override
             public final boolean hasNext() {
-                return iterator.hasNext();
+                final boolean res = iterator.hasNext();
+                if (!res){
+                    exhausted = true;
+                }
+                return res;
             }
             @Override
             public final void close() throws IOException {
-                csvParser.close();
-                if (deleteFileOnClose) {
-                    final boolean deleteRes = file.delete();
-                    if (!deleteRes) {
-                        logger.warn("Failed to delete temp file: '{}'.", file.getAbsolutePath());
-                    }
+                try {
+                    csvParser.close();
+                }finally {
+                    onClose.run();
                 }
             }
             @Override
@@ -97,66 +219,199 @@ public final class CsvUtil {
                         @Override
                         public final String getColumnVale(final String nameOrIndex) {
                             try{
-                                final String val = record.get(nameOrIndex);
-                                if (!StringUtil.isNullOrBlank(val)){
-                                    return val;
+                                final Integer index = headerMap == null ? null : headerMap.get(nameOrIndex);
+                                if (index != null){
+                                    final String val = record.get(index);
+                                    if (!StringUtil.isNullOrBlank(val)){
+                                        return decode(val);
+                                    }
                                 }
                             }catch (final Throwable ignored){}
                             try {
                                 final int index = Integer.parseInt(nameOrIndex);
-                                return record.get(index);
+                                return decode(record.get(index));
                             }catch (final Throwable ignored){}
                             return null;
                         }
+
+                        @Override
+                        public final String getColumnVale(final int index) {
+                            return index < record.size() ? decode(record.get(index)) : null;
+                        }
+
+                        @Override
+                        public final long getOffset() {
+                            return record.getCharacterPosition();
+                        }
                     };
                 }catch (final Throwable ignored){}
                 return null;
             }
         };
+        if (!seek){
+            //No checkpoint. Skip already processed records by parsing them.
+            for (long i = 0; i < processed; i++){
+                if (res.hasNext()){
+                    res.next();
+                }else{
+                    try{res.close();}catch (final Throwable ignored){}
+                    throw new RuntimeException("CSV has less than " + processed + " records.");
+                }
+            }
+        }
+        return res;
     }
 
-    private final static Map.Entry<CSVFormat, Integer> csvAutodetectAndCountRows(final File file){
+    private static final String decode(final String value){
+        if (value == null)
+            return null;
+
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80){
+                return new String(value.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+            }
+        }
+        return value;
+    }
+
+    private static final Map<String, Integer> decodeHeader(final String[] header){
+        return header == null ? null : decodeHeader(List.of(header));
+    }
+
+    private static final Map<String, Integer> decodeHeader(final List<String> header){
+        if (header == null || header.isEmpty())
+            return null;
+
+        final Map<String, Integer> res = new LinkedHashMap<>(header.size() * 2);
+        for (int i = 0; i < header.size(); i++) {
+            final String name = decode(header.get(i));
+            if (name != null){
+                res.putIfAbsent(name, i);
+            }
+        }
+        return res;
+    }
+
+    private final static FormatDetection csvAutodetectFromSample(final byte[] head, final long fileSize){
         final Logger logger = LoggerFactory.getLogger("CsvFormatAutodetect");
         final CSVFormat[] formats = new CSVFormat[]{
                 CSVFormat.DEFAULT.withHeader(), CSVFormat.MONGODB_CSV.withHeader(), CSVFormat.MONGODB_TSV.withHeader(), CSVFormat.EXCEL.withHeader(), CSVFormat.INFORMIX_UNLOAD.withHeader(), CSVFormat.INFORMIX_UNLOAD_CSV.withHeader(), CSVFormat.TDF.withHeader(), CSVFormat.MYSQL.withHeader(), CSVFormat.ORACLE.withHeader(), CSVFormat.POSTGRESQL_CSV.withHeader(), CSVFormat.POSTGRESQL_TEXT.withHeader(), CSVFormat.RFC4180.withHeader(),
                 CSVFormat.DEFAULT, CSVFormat.MONGODB_CSV, CSVFormat.MONGODB_TSV, CSVFormat.EXCEL, CSVFormat.INFORMIX_UNLOAD, CSVFormat.INFORMIX_UNLOAD_CSV, CSVFormat.TDF, CSVFormat.MYSQL, CSVFormat.ORACLE, CSVFormat.POSTGRESQL_CSV, CSVFormat.POSTGRESQL_TEXT, CSVFormat.RFC4180};
 
-        for(final CSVFormat format : formats){
-            final CSVParser csvParser;
-            try {
-                csvParser = new CSVParser(new BufferedReader(new FileReader(file)), format);
-                final Iterator<CSVRecord> iterator = csvParser.iterator();
-                int counter = 0;
-                String[] values = null;
-                while (iterator.hasNext()) {
-                    final CSVRecord record = iterator.next();
-                    counter++;
-
-                    values = record.values();
-                }
-                final int rowsCount = counter;
-                if (values != null){
-                    logger.info("CSV format detected: '{}'. Last row: {}. Rows count: {}.", format, JSON.toJson(values), rowsCount);
-                }
+        final boolean wholeFile = fileSize > 0 ? head.length >= fileSize : head.length < SAMPLE_BYTES;
+        int sampleLength = head.length;
+        if (!wholeFile){
+            //Cut the sample at the last line break, so the last sampled record is complete
+            while (sampleLength > 0 && head[sampleLength - 1] != '\n'){
+                sampleLength--;
+            }
+            if (sampleLength == 0){
+                sampleLength = head.length;
+            }
+        }
+        final String sample = new String(head, 0, sampleLength, StandardCharsets.ISO_8859_1);
 
-                return new Map.Entry<>() {
-                    @Override
-                    public final CSVFormat getKey() {
-                        return format;
+        FormatDetection best = null;
+        double bestScore = -1;
+        for(final CSVFormat format : formats){
+            try (final CSVParser csvParser = new CSVParser(new StringReader(sample), format)) {
+                final Map<String, Integer> headerMap = csvParser.getHeaderMap();
+                int columns = headerMap == null ? -1 : headerMap.size();
+                int records = 0;
+                int consistent = 0;
+                for (final CSVRecord record : csvParser) {
+                    if (columns < 0){
+                        columns = record.size();
                     }
-                    @Override
-                    public final Integer getValue() {
-                        return rowsCount;
+                    if (record.size() == columns){
+                        consistent++;
                     }
-                    @Override
-                    public final Integer setValue(final Integer value) {
-                        throw new RuntimeException("NOT SUPPORTED");
+                    records++;
+                    if (records >= SAMPLE_ROWS && !wholeFile)
+                        break;
+                }
+                if (columns <= 0)
+                    continue;
+
+                //Formats that see a single column in a delimited file are usually wrong, so they only win when nothing better fits
+                final double consistency = records == 0 ? 1.0 : (double) consistent / records;
+                final double score = columns > 1 ? consistency : consistency * 0.5;
+                if (score > bestScore){
+                    bestScore = score;
+                    final long estimatedRows;
+                    if (wholeFile || records == 0 || fileSize <= 0){
+                        estimatedRows = records;
+                    }else{
+                        final double bytesPerRow = (double) sampleLength / (records + (headerMap == null ? 0 : 1));
+                        estimatedRows = Math.max(records, (long) (fileSize / bytesPerRow) - (headerMap == null ? 0 : 1));
                     }
-                };
+                    final List<String> headerNames = csvParser.getHeaderNames();
+                    best = new FormatDetection(format,
+                            headerMap == null || headerNames == null ? null : headerNames.toArray(new String[0]),
+                            estimatedRows,
+                            wholeFile);
+                }
+                if (score >= 1.0 && columns > 1)
+                    break;
             } catch (final Throwable ignored) {}
         }
-        return null;
+        if (best != null){
+            logger.info("CSV format detected: '{}'. Score: {}. Estimated rows count: {}.", best.format, bestScore, best.estimatedRows);
+        }
+        return best;
     }
+
+    private static final class FormatDetection{
+        private final CSVFormat format;
+        private final String[] header;
+        private final long estimatedRows;
+        private final boolean exact;
+
+        private FormatDetection(final CSVFormat format, final String[] header, final long estimatedRows, final boolean exact){
+            this.format = format;
+            this.header = header;
+            this.estimatedRows = estimatedRows;
+            this.exact = exact;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream{
+        private volatile long count;
+
+        private CountingInputStream(final InputStream in){
+            super(in);
+        }
+
+        @Override
+        public final int read() throws IOException {
+            final int res = super.read();
+            if (res >= 0){
+                count++;
+            }
+            return res;
+        }
+
+        @Override
+        public final int read(final byte[] b, final int off, final int len) throws IOException {
+            final int res = super.read(b, off, len);
+            if (res > 0){
+                count += res;
+            }
+            return res;
+        }
+
+        @Override
+        public final long skip(final long n) throws IOException {
+            final long res = super.skip(n);
+            count += res;
+            return res;
+        }
+
+        private final long getCount(){
+            return count;
+        }
+    }
+
     public static interface CsvIterator extends Iterator<CsvRecord>, Closeable {
         long getCurrentRow();
         long getTotalRows();
@@ -168,5 +423,14 @@ public final class CsvUtil {
     public static interface CsvRecord{
         public String getColumnVale(final String nameOrIndex);
 
+        //Value of a column resolved through the header map beforehand, null when the record has no such column.
+        public default String getColumnVale(final int index){
+            return getColumnVale(String.valueOf(index));
+        }
+
+        //Byte offset of the record start in the source file, -1 when unknown.
+        public default long getOffset(){
+            return -1;
+        }
     }
 }
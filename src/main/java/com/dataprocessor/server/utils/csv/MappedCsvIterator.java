@@ -0,0 +1,379 @@
+package com.dataprocessor.server.utils.csv;
+
+import com.dataprocessor.server.utils.StringUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+//Byte level tokenizer over a memory-mapped file. Records keep field bounds into the mapped window and values are
+//only decoded when a column is read. Handles single byte delimiters and quotes without escape characters. Malformed
+//quoting fails like commons-csv does: characters other than whitespace after a closing quote, or a quote left open.
+final class MappedCsvIterator implements CsvUtil.CsvIterator {
+    private static final long WINDOW_BYTES = 256L * 1024 * 1024;
+    private static final int SAMPLE_ROWS = 1000;
+
+    private final long timeStamp = System.currentTimeMillis();
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final byte delimiter;
+    private final int quote;
+    private final boolean ignoreEmptyLines;
+    private final Map<String, Integer> headerMap;
+    private final long estimatedRows;
+    private final boolean exact;
+    private final Runnable onClose;
+    private final long windowBytes;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int windowLength;
+    private long position;
+    private int[] bounds = new int[64];
+    private MappedRecord lookahead;
+    private volatile long currentRow;
+    private volatile boolean exhausted;
+
+    MappedCsvIterator(final File source,
+                      final char delimiter,
+                      final Character quote,
+                      final boolean ignoreEmptyLines,
+                      final boolean skipHeader,
+                      final Map<String, Integer> headerMap,
+                      final long estimatedRows,
+                      final boolean exact,
+                      final Runnable onClose) throws IOException {
+        this(source, delimiter, quote, ignoreEmptyLines, skipHeader, headerMap, estimatedRows, exact, onClose, WINDOW_BYTES);
+    }
+
+    //Smaller windows let tests put record and window boundaries anywhere
+    MappedCsvIterator(final File source,
+                      final char delimiter,
+                      final Character quote,
+                      final boolean ignoreEmptyLines,
+                      final boolean skipHeader,
+                      final Map<String, Integer> headerMap,
+                      final long estimatedRows,
+                      final boolean exact,
+                      final Runnable onClose,
+                      final long windowBytes) throws IOException {
+        this.windowBytes = windowBytes;
+        this.file = new RandomAccessFile(source, "r");
+        this.channel = file.getChannel();
+        this.fileSize = channel.size();
+        this.delimiter = (byte) delimiter;
+        this.quote = quote == null ? -1 : (byte) quote.charValue();
+        this.ignoreEmptyLines = ignoreEmptyLines;
+        this.headerMap = headerMap;
+        this.estimatedRows = estimatedRows;
+        this.exact = exact;
+        this.onClose = onClose;
+        try {
+            map(0);
+            if (skipHeader){
+                readRecord();
+            }
+        }catch (final IOException | RuntimeException cause){
+            close();
+            throw cause;
+        }
+    }
+
+    static final boolean supports(final char delimiter,
+                                  final Character quote,
+                                  final Character escape,
+                                  final boolean ignoreSurroundingSpaces,
+                                  final boolean trim){
+        return delimiter < 0x80 && delimiter != '\r' && delimiter != '\n'
+                && (quote == null || quote < 0x80)
+                && escape == null && !ignoreSurroundingSpaces && !trim;
+    }
+
+    @Override
+    public final long getCurrentRow() {
+        return currentRow;
+    }
+
+    @Override
+    public final long getTotalRows() {
+        if (exhausted)
+            return currentRow;
+        if (exact)
+            return estimatedRows;
+
+        final long row = currentRow;
+        final long bytesRead = position;
+        if (row < SAMPLE_ROWS || bytesRead <= 0)
+            return Math.max(row, estimatedRows);
+
+        return row + (long) ((fileSize - bytesRead) * ((double) row / bytesRead));
+    }
+
+    @Override
+    public final Map<String, Integer> getHeaderMap() {
+        return headerMap;
+    }
+
+    @Override
+    public final long timeStamp() {
+        return timeStamp;
+    }
+
+    @Override
+    public final List<CsvUtil.CsvRecord> getBulk(final int amount) {
+        final List<CsvUtil.CsvRecord> result = new ArrayList<>(amount);
+        for (int i = 0; i < amount; i++) {
+            if (this.hasNext()){
+                result.add(this.next());
+            }else {
+                break;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public final boolean hasNext() {
+        if (lookahead != null)
+            return true;
+        if (exhausted)
+            return false;
+        try {
+            lookahead = readRecord();
+        }catch (final IOException cause){
+            throw new UncheckedIOException("Failed to read CSV.", cause);
+        }
+        if (lookahead == null){
+            exhausted = true;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public final CsvUtil.CsvRecord next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        final MappedRecord res = lookahead;
+        lookahead = null;
+        currentRow++;
+        return res;
+    }
+
+    @Override
+    public final void close() throws IOException {
+        try {
+            file.close();
+        }finally {
+            //The mapping itself is released once the window and the records referencing it are collected
+            window = null;
+            onClose.run();
+        }
+    }
+
+    private final void map(final long start) throws IOException {
+        windowStart = start;
+        windowLength = (int) Math.min(windowBytes, fileSize - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, windowLength);
+    }
+
+    private final MappedRecord readRecord() throws IOException {
+        for (;;){
+            if (position >= fileSize)
+                return null;
+            if (position - windowStart >= windowLength){
+                map(position);
+            }
+            final int end = tokenize((int) (position - windowStart));
+            if (end < 0){
+                //Record crosses the window end, map a new window starting at the record
+                if (position == windowStart)
+                    throw new IOException("CSV record at byte " + position + " is larger than " + windowBytes + " bytes.");
+                map(position);
+                continue;
+            }
+            final long recordStart = position;
+            position = windowStart + end;
+            //A single empty field means an empty line
+            final int fields = bounds[0];
+            if (fields == 1 && bounds[1] == bounds[2] && bounds[3] == 0 && ignoreEmptyLines)
+                continue;
+
+            final int[] recordBounds = new int[fields * 3];
+            System.arraycopy(bounds, 1, recordBounds, 0, recordBounds.length);
+            return new MappedRecord(window, recordBounds, recordStart);
+        }
+    }
+
+    //Fills 'bounds' with [count, start, end, quoted, ...] relative to the window and returns the offset after the
+    //record separator, or -1 when the record does not end inside a window that stops short of the file end.
+    private final int tokenize(final int from) throws IOException {
+        final MappedByteBuffer buffer = window;
+        final int limit = windowLength;
+        final boolean lastWindow = windowStart + windowLength >= fileSize;
+        int fields = 0;
+        int i = from;
+        for (;;){
+            int start = i;
+            int end;
+            boolean quoted = false;
+            if (quote >= 0 && i < limit && buffer.get(i) == quote){
+                quoted = true;
+                start = ++i;
+                for (;;){
+                    if (i >= limit){
+                        if (!lastWindow)
+                            return -1;
+                        throw new IOException("EOF reached before the quoted field starting at byte " + (windowStart + start - 1) + " finished.");
+                    }
+                    if (buffer.get(i) == quote){
+                        if (i + 1 < limit && buffer.get(i + 1) == quote){
+                            i += 2;
+                            continue;
+                        }
+                        if (i + 1 >= limit && !lastWindow)
+                            return -1;
+                        end = i++;
+                        break;
+                    }
+                    i++;
+                }
+                //Only whitespace may follow the closing quote, it is dropped. Bytes are compared as ISO-8859-1 chars,
+                //like commons-csv sees them.
+                while (i < limit){
+                    final byte b = buffer.get(i);
+                    if (b == delimiter || b == '\n' || b == '\r')
+                        break;
+                    if (!Character.isWhitespace((char) (b & 0xFF)))
+                        throw new IOException("Invalid char between the closing quote and the delimiter at byte " + (windowStart + i) + ".");
+                    i++;
+                }
+            }else{
+                while (i < limit){
+                    final byte b = buffer.get(i);
+                    if (b == delimiter || b == '\n' || b == '\r')
+                        break;
+                    i++;
+                }
+                end = i;
+            }
+            if (i >= limit && !lastWindow)
+                return -1;
+
+            fields = addField(fields, start, end, quoted);
+            if (i >= limit){
+                bounds[0] = fields;
+                return i;
+            }
+            final byte b = buffer.get(i);
+            if (b == delimiter){
+                i++;
+                continue;
+            }
+            //Record separator: \n, \r or \r\n
+            if (b == '\r'){
+                if (i + 1 >= limit && !lastWindow)
+                    return -1;
+                if (i + 1 < limit && buffer.get(i + 1) == '\n'){
+                    i++;
+                }
+            }
+            bounds[0] = fields;
+            return i + 1;
+        }
+    }
+
+    private final int addField(final int fields, final int start, final int end, final boolean quoted){
+        final int at = 1 + fields * 3;
+        if (at + 3 > bounds.length){
+            final int[] grown = new int[bounds.length * 2];
+            System.arraycopy(bounds, 0, grown, 0, bounds.length);
+            bounds = grown;
+        }
+        bounds[at] = start;
+        bounds[at + 1] = end;
+        bounds[at + 2] = quoted ? 1 : 0;
+        return fields + 1;
+    }
+
+    private final class MappedRecord implements CsvUtil.CsvRecord {
+        private final MappedByteBuffer buffer;
+        private final int[] fields;
+        private final long offset;
+
+        private MappedRecord(final MappedByteBuffer buffer, final int[] fields, final long offset){
+            this.buffer = buffer;
+            this.fields = fields;
+            this.offset = offset;
+        }
+
+        @Override
+        public final String getColumnVale(final String nameOrIndex) {
+            final Integer named = headerMap == null ? null : headerMap.get(nameOrIndex);
+            if (named != null){
+                final String val = value(named);
+                if (!StringUtil.isNullOrBlank(val))
+                    return val;
+            }
+            final int index = parseIndex(nameOrIndex);
+            return index < 0 ? null : value(index);
+        }
+
+        @Override
+        public final String getColumnVale(final int index) {
+            return value(index);
+        }
+
+        @Override
+        public final long getOffset() {
+            return offset;
+        }
+
+        private final String value(final int index){
+            if (index < 0 || index >= fields.length / 3)
+                return null;
+
+            final int start = fields[index * 3];
+            final int length = fields[index * 3 + 1] - start;
+            if (length == 0)
+                return "";
+
+            final byte[] bytes = new byte[length];
+            buffer.get(start, bytes, 0, length);
+            if (fields[index * 3 + 2] == 0)
+                return new String(bytes, StandardCharsets.UTF_8);
+
+            //Collapse doubled quotes inside quoted fields
+            int size = 0;
+            for (int i = 0; i < length; i++, size++) {
+                bytes[size] = bytes[i];
+                if (bytes[i] == quote && i + 1 < length && bytes[i + 1] == quote){
+                    i++;
+                }
+            }
+            return new String(bytes, 0, size, StandardCharsets.UTF_8);
+        }
+
+        private static final int parseIndex(final String value){
+            if (value == null || value.isEmpty() || value.length() > 9)
+                return -1;
+            int res = 0;
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                if (c < '0' || c > '9')
+                    return -1;
+                res = res * 10 + (c - '0');
+            }
+            return res;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.dataprocessor.server.repositories;
+
+import com.dataprocessor.server.entities.LogicalPredicate;
+import com.dataprocessor.server.entities.SearchEntity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+//Cached pages are served until they expire, are the least recently used of a full cache, or an upload changes the rows.
+class SearchCacheTest {
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void equivalentSearchesShareAnEntry() {
+        final SearchCache cache = cache(10, 60);
+        get(cache, search(List.of("name:anna", "city:oslo"), List.of("b", "a")), 10);
+        get(cache, search(List.of(" City:OSLO ", "Name:Anna"), List.of("a", "b")), 10);
+        assertEquals(1, loads.get());
+
+        //Another page or shape is another entry
+        get(cache, search(List.of("name:anna", "city:oslo"), List.of("a", "b")), 20);
+        assertEquals(2, loads.get());
+        cache.get(search(List.of("name:anna", "city:oslo"), List.of("a", "b")), 1, null, 0, 10, () -> {
+            loads.incrementAndGet();
+            return rows();
+        });
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    void callersGetCopies() {
+        final SearchCache cache = cache(10, 60);
+        get(cache, search("name:anna"), 10).getFirst().remove("_id");
+        final List<Map<String, List<String>>> cached = get(cache, search("name:anna"), 10);
+        cached.getFirst().get("_id").clear();
+        assertEquals(List.of("row"), get(cache, search("name:anna"), 10).getFirst().get("_id"));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void entriesExpireAfterTtl() {
+        final SearchCache cache = cache(10, 60);
+        get(cache, search("name:anna"), 10);
+        now.addAndGet(59_999);
+        get(cache, search("name:anna"), 10);
+        assertEquals(1, loads.get());
+
+        now.addAndGet(1);
+        get(cache, search("name:anna"), 10);
+        assertEquals(2, loads.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvicted() {
+        final SearchCache cache = cache(2, 60);
+        get(cache, search("name:a"), 10);
+        get(cache, search("name:b"), 10);
+        //Reading 'a' makes 'b' the eldest
+        get(cache, search("name:a"), 10);
+        get(cache, search("name:c"), 10);
+        assertEquals(3, loads.get());
+        assertEquals(2, cache.size());
+
+        get(cache, search("name:a"), 10);
+        get(cache, search("name:c"), 10);
+        assertEquals(3, loads.get());
+        get(cache, search("name:b"), 10);
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    void invalidateDropsEntries() {
+        final SearchCache cache = cache(10, 60);
+        get(cache, search("name:anna"), 10);
+        cache.invalidate();
+        assertEquals(0, cache.size());
+        get(cache, search("name:anna"), 10);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void pageLoadedAcrossInvalidateIsNotCached() {
+        final SearchCache cache = cache(10, 60);
+        cache.get(search("name:anna"), 2, null, 0, 10, () -> {
+            //An upload committed while the search ran
+            cache.invalidate();
+            return rows();
+        });
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void largePagesAndDisabledCacheBypass() {
+        final SearchCache cache = cache(10, 60);
+        get(cache, search("name:anna"), 11);
+        get(cache, search("name:anna"), 11);
+        assertEquals(2, loads.get());
+
+        final SearchCache disabled = cache(10, 0);
+        get(disabled, search("name:anna"), 10);
+        get(disabled, search("name:anna"), 10);
+        assertEquals(4, loads.get());
+        assertEquals(0, disabled.size());
+    }
+
+    private final SearchCache cache(final int maxEntries, final long ttlSeconds){
+        return new SearchCache(new SimpleMeterRegistry(), maxEntries, 10, ttlSeconds, now::get);
+    }
+
+    private final List<Map<String, List<String>>> get(final SearchCache cache, final SearchEntity search, final int limit){
+        return cache.get(search, 2, null, 0, limit, () -> {
+            loads.incrementAndGet();
+            return rows();
+        });
+    }
+
+    private static final List<Map<String, List<String>>> rows(){
+        final List<Map<String, List<String>>> rows = new ArrayList<>();
+        rows.add(new HashMap<>(Map.of("_id", new ArrayList<>(List.of("row")))));
+        return rows;
+    }
+
+    private static final SearchEntity search(final String columnSearch){
+        return search(List.of(columnSearch), List.of());
+    }
+
+    private static final SearchEntity search(final List<String> columnSearches, final List<String> uploads){
+        return new SearchEntity(columnSearches, LogicalPredicate.AND, uploads, List.of(), 0);
+    }
+}
@@ -0,0 +1,135 @@
+package com.dataprocessor.server.repositories.columnar;
+
+import com.dataprocessor.server.entities.LogicalPredicate;
+import com.dataprocessor.server.entities.UploadDescriptor;
+import com.dataprocessor.server.repositories.SearchCache;
+import com.dataprocessor.server.repositories.SearchRepository;
+import com.dataprocessor.server.repositories.UploadRepository;
+import com.dataprocessor.server.utils.tuples.Tuple2;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+//Only what a batch committed may survive a failure or a restart, and a batch committed again must not duplicate rows.
+class ColumnarStorageEngineTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void committedRowsAreSearchableAfterReopen() throws IOException {
+        final ColumnarStorageEngine engine = open();
+        engine.writeRows(upload("people"), 2, 20, 2, List.of(0L, 1L), List.of(
+                record("name", "anna", "city", "oslo"),
+                record("name", "bob", "city", "oslo")));
+        engine.close();
+
+        final ColumnarStorageEngine reopened = open();
+        try {
+            assertEquals(List.of("0", "1"), find(reopened, "city:oslo"));
+            assertEquals(List.of("1"), find(reopened, "name:bob"));
+            assertEquals(List.of("anna"), reopened.fetchRows(List.of("0")).getFirst().get("name"));
+            assertEquals(new Tuple2<>(2L, 20L), reopened.checkpointOf("people"));
+        }finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void batchCommittedAgainSkipsStoredRows() throws IOException {
+        final ColumnarStorageEngine engine = open();
+        engine.writeRows(upload("people"), -1, -1, 2, List.of(0L, 1L), List.of(record("name", "anna"), record("name", "bob")));
+        engine.close();
+
+        final ColumnarStorageEngine reopened = open();
+        try {
+            reopened.writeRows(upload("people"), -1, -1, 3, List.of(1L, 2L), List.of(record("name", "bob"), record("name", "carl")));
+            assertEquals(List.of("1"), find(reopened, "name:bob"));
+            assertEquals(List.of("2"), find(reopened, "name:carl"));
+        }finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void failedWriteIsRolledBack() throws IOException {
+        final ColumnarStorageEngine engine = open();
+        engine.writeRows(upload("people"), -1, -1, 3, List.of(0L), List.of(record("name", "anna")));
+        //A column whose file name is too long fails the batch after 'bob' was staged
+        assertThrows(ResponseStatusException.class, () -> engine.writeRows(upload("people"), -1, -1, 3, List.of(1L, 2L),
+                List.of(record("name", "bob"), record("x".repeat(300), "c"))));
+        engine.writeRows(upload("people"), -1, -1, 3, List.of(1L), List.of(record("name", "carl")));
+        assertEquals(List.of(), find(engine, "name:bob"));
+        assertEquals(List.of("1"), find(engine, "name:carl"));
+        engine.close();
+
+        final ColumnarStorageEngine reopened = open();
+        try {
+            assertEquals(List.of(), find(reopened, "name:bob"));
+            assertEquals(List.of("carl"), reopened.fetchRows(List.of("1")).getFirst().get("name"));
+        }finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void uncommittedCellsAreTruncatedOnReopen() throws IOException {
+        final ColumnarStorageEngine engine = open();
+        engine.writeRows(upload("people"), -1, -1, 2, List.of(0L), List.of(record("name", "anna")));
+        engine.close();
+        //A crash after the cells and the row of the next batch were written, before its entry was appended
+        try (final ColumnStore store = new ColumnStore("name", directory.resolve("name.values"), directory.resolve("name.cells"), 1)) {
+            store.add(1, "bob");
+            store.flush();
+        }
+        try (final MappedLog rows = new MappedLog(directory.resolve("rows.bin"), 4)) {
+            rows.append(ByteBuffer.allocate(4).putInt(0).flip());
+        }
+
+        final ColumnarStorageEngine reopened = open();
+        try {
+            assertEquals(List.of(), find(reopened, "name:bob"));
+            assertEquals(List.of(), reopened.fetchRows(List.of("1")));
+            reopened.writeRows(upload("people"), -1, -1, 2, List.of(1L), List.of(record("name", "carl")));
+            assertEquals(List.of("carl"), reopened.fetchRows(List.of("1")).getFirst().get("name"));
+        }finally {
+            reopened.close();
+        }
+    }
+
+    private final ColumnarStorageEngine open() throws IOException {
+        //Progress is also written to the upload's node, which fails and is only logged without a database
+        final ColumnarStorageEngine engine = new ColumnarStorageEngine(new UploadRepository(null, null, null, "0"),
+                new SearchCache(new SimpleMeterRegistry(), 10, 10, 60),
+                directory.toString());
+        engine.open();
+        return engine;
+    }
+
+    private static final List<String> find(final ColumnarStorageEngine engine, final String query){
+        return engine.findRows(List.of(SearchRepository.SearchQuery.parse(query)), LogicalPredicate.AND, List.of(), "", 0, 10);
+    }
+
+    private static final UploadDescriptor upload(final String name){
+        final UploadDescriptor upload = new UploadDescriptor();
+        upload.name = name;
+        return upload;
+    }
+
+    private static final List<Tuple2<String, String>> record(final String... columnsAndValues){
+        final List<Tuple2<String, String>> record = new ArrayList<>(columnsAndValues.length / 2);
+        for (int i = 0; i < columnsAndValues.length; i += 2) {
+            record.add(new Tuple2<>(columnsAndValues[i], columnsAndValues[i + 1]));
+        }
+        return record;
+    }
+}
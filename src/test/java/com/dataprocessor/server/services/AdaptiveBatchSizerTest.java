@@ -0,0 +1,80 @@
+package com.dataprocessor.server.services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Commits are simulated with a latency proportional to their values, as the sizer models them.
+class AdaptiveBatchSizerTest {
+    @Test
+    void convergesToTargetLatency() {
+        //2 values per row at 0.1 ms per value, so 500 rows take the 100 ms target
+        final AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(10, 1, 10_000, 1_000_000, 100, 2);
+        for (int i = 0; i < 50; i++) {
+            commit(sizer, 2, 0.1);
+        }
+        assertEquals(500, sizer.getBatchSize(), 5);
+    }
+
+    @Test
+    void followsLatencyChanges() {
+        final AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(500, 1, 10_000, 1_000_000, 100, 2);
+        for (int i = 0; i < 50; i++) {
+            commit(sizer, 2, 0.1);
+        }
+        //The database slows down five times
+        for (int i = 0; i < 50; i++) {
+            commit(sizer, 2, 0.5);
+        }
+        assertEquals(100, sizer.getBatchSize(), 2);
+    }
+
+    @Test
+    void growsAndShrinksAtMostTwiceAtATime() {
+        final AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, 1, 10_000, 1_000_000, 100, 1);
+        sizer.onCommit(100, 100, 1);
+        assertEquals(200, sizer.getBatchSize());
+        final AdaptiveBatchSizer slow = new AdaptiveBatchSizer(100, 1, 10_000, 1_000_000, 100, 1);
+        slow.onCommit(100, 100, 100_000);
+        assertEquals(50, slow.getBatchSize());
+    }
+
+    @Test
+    void staysWithinRowBounds() {
+        final AdaptiveBatchSizer fast = new AdaptiveBatchSizer(100, 10, 1_000, 1_000_000, 100, 1);
+        final AdaptiveBatchSizer slow = new AdaptiveBatchSizer(100, 10, 1_000, 1_000_000, 100, 1);
+        for (int i = 0; i < 50; i++) {
+            fast.onCommit(fast.getBatchSize(), fast.getBatchSize(), 0);
+            slow.onCommit(slow.getBatchSize(), slow.getBatchSize(), 60_000);
+        }
+        assertEquals(1_000, fast.getBatchSize());
+        assertEquals(10, slow.getBatchSize());
+        assertEquals(10, new AdaptiveBatchSizer(1, 10, 1_000, 1_000_000, 100, 1).getBatchSize());
+        assertEquals(1_000, new AdaptiveBatchSizer(5_000, 10, 1_000, 1_000_000, 100, 1).getBatchSize());
+    }
+
+    @Test
+    void capsValuesPerTransaction() {
+        //10 values per row, so 1000 values allow 100 rows however fast commits are
+        final AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(1_000, 1, 10_000, 1_000, 100, 10);
+        assertEquals(100, sizer.getBatchSize());
+        for (int i = 0; i < 20; i++) {
+            sizer.onCommit(sizer.getBatchSize(), sizer.getBatchSize() * 10, 0);
+            assertTrue(sizer.getBatchSize() <= 100);
+        }
+        assertEquals(100, sizer.getBatchSize());
+    }
+
+    @Test
+    void ignoresEmptyCommits() {
+        final AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, 1, 10_000, 1_000_000, 100, 1);
+        sizer.onCommit(0, 0, 1_000);
+        assertEquals(100, sizer.getBatchSize());
+    }
+
+    private static final void commit(final AdaptiveBatchSizer sizer, final int valuesPerRow, final double millisPerValue){
+        final int rows = sizer.getBatchSize();
+        sizer.onCommit(rows, rows * valuesPerRow, Math.round(rows * valuesPerRow * millisPerValue));
+    }
+}
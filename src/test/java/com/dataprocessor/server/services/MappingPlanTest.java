@@ -0,0 +1,111 @@
+package com.dataprocessor.server.services;
+
+import com.dataprocessor.server.entities.UploadMapping;
+import com.dataprocessor.server.utils.StringTransformer;
+import com.dataprocessor.server.utils.StringUtil;
+import com.dataprocessor.server.utils.csv.CsvUtil;
+import com.dataprocessor.server.utils.tuples.Tuple2;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+//A compiled plan must map rows like the mappings did when they were interpreted for every row.
+class MappingPlanTest {
+    private static final List<String> HEADER = List.of("First", "Last", "E-Mail", "Phone", "Amount", "Note");
+    private final RecordValidationUtilService validation = new RecordValidationUtilService();
+
+    @Test
+    void matchesInterpretedMappings() {
+        final List<UploadMapping> mappings = List.of(
+                mapping(List.of("First", "Last"), "name", null, StringTransformer.Transformation.NRM, StringTransformer.Transformation.TLC),
+                mapping(List.of("E-Mail"), "email", null, StringTransformer.Transformation.TRIM, StringTransformer.Transformation.TLC),
+                mapping(List.of("Phone"), "phone", null),
+                mapping(List.of("Note", "Missing"), "note", null, StringTransformer.Transformation.TUC),
+                mapping(List.of("Amount"), "amount", null, StringTransformer.Transformation.NRM));
+        final MappingPlan plan = MappingPlan.compile(mappings, headerMap(), validation);
+        for(final List<String> values : List.of(
+                List.of("  John ", "DOE", " John@Example.com ", "+1 (555) 123-4567", "1 000", "'quoted' note"),
+                List.of("", "", "not an email", "12", "", ""),
+                List.of("Ann", "", "", "", "  ", "ß"))){
+            final CsvUtil.CsvRecord record = record(values);
+            assertEquals(interpret(mappings, record), plan.apply(record, new MappingPlan.Stats()), values.toString());
+        }
+    }
+
+    @Test
+    void joinsSourceColumnsBeforeTransforming() {
+        final MappingPlan plan = MappingPlan.compile(List.of(mapping(List.of("First", "Last"), "name", null,
+                StringTransformer.Transformation.NRM, StringTransformer.Transformation.TUC)), headerMap(), validation);
+        assertEquals(List.of(new Tuple2<>("name", "JOHN DOE")), plan.apply(record(List.of(" john ", " doe", "", "", "", "")), new MappingPlan.Stats()));
+        assertEquals(List.of(new Tuple2<>("name", "DOE")), plan.apply(record(List.of("", "doe", "", "", "", "")), new MappingPlan.Stats()));
+    }
+
+    @Test
+    void selectedValidatorCountsRejectedCells() {
+        final MappingPlan plan = MappingPlan.compile(List.of(
+                mapping(List.of("Amount"), "amount", RecordValidationUtilService.NUMERIC),
+                mapping(List.of("Note"), "note", null)), headerMap(), validation);
+        final MappingPlan.Stats stats = new MappingPlan.Stats();
+        assertEquals(List.of(new Tuple2<>("amount", "1000.5"), new Tuple2<>("note", "x")), plan.apply(record(List.of("", "", "", "", "1 000,5", "x")), stats));
+        assertEquals(0, stats.rejectedCells);
+        assertEquals(List.of(new Tuple2<>("note", "x")), plan.apply(record(List.of("", "", "", "", "abc", "x")), stats));
+        //Blank cells are not rejected, they are just empty
+        assertEquals(List.of(new Tuple2<>("note", "x")), plan.apply(record(List.of("", "", "", "", " ", "x")), stats));
+        assertEquals(1, stats.rejectedCells);
+        stats.reset();
+        assertEquals(0, stats.rejectedCells);
+    }
+
+    //How rows were mapped before plans: every source through the validator picked by its name, joined, transformed again
+    private final List<Tuple2<String, String>> interpret(final List<UploadMapping> mappings, final CsvUtil.CsvRecord record){
+        final List<Tuple2<String, String>> res = new ArrayList<>(mappings.size());
+        for(final UploadMapping mapping : mappings){
+            final StringBuilder sb = new StringBuilder(128);
+            for (int i = 0; i < mapping.sourceColumns.size() - 1; i++) {
+                sb.append(validation.extractAndValidate(record, mapping.sourceColumns.get(i), mapping.transformations)).append(" ");
+            }
+            sb.append(validation.extractAndValidate(record, mapping.sourceColumns.getLast(), mapping.transformations));
+            final String value = StringTransformer.transform(sb.toString(), mapping.transformations);
+            if (!StringUtil.isNullOrBlank(value)){
+                res.add(new Tuple2<>(mapping.destinationColumn, value));
+            }
+        }
+        return res;
+    }
+
+    private static final UploadMapping mapping(final List<String> sources,
+                                               final String destination,
+                                               final String validator,
+                                               final StringTransformer.Transformation... transformations){
+        return new UploadMapping(sources, destination, List.of(transformations), validator, false, false);
+    }
+
+    private static final Map<String, Integer> headerMap(){
+        final Map<String, Integer> res = new HashMap<>();
+        for (int i = 0; i < HEADER.size(); i++) {
+            res.put(HEADER.get(i), i);
+        }
+        return res;
+    }
+
+    private static final CsvUtil.CsvRecord record(final List<String> values){
+        final Map<String, Integer> header = headerMap();
+        return new CsvUtil.CsvRecord() {
+            @Override
+            public String getColumnVale(final String nameOrIndex) {
+                final Integer index = header.get(nameOrIndex);
+                return index == null ? null : values.get(index);
+            }
+
+            @Override
+            public String getColumnVale(final int index) {
+                return values.get(index);
+            }
+        };
+    }
+}
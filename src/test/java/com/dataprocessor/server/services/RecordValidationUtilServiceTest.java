@@ -0,0 +1,94 @@
+package com.dataprocessor.server.services;
+
+import com.dataprocessor.server.entities.UploadMapping;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+//Validators return the valid form of a value, or an empty string when it is invalid.
+class RecordValidationUtilServiceTest {
+    private final RecordValidationUtilService service = new RecordValidationUtilService();
+
+    @Test
+    void email() {
+        assertEquals("john@example.com", validate(RecordValidationUtilService.EMAIL, "john@example.com"));
+        assertEquals("", validate(RecordValidationUtilService.EMAIL, "john@@example.com"));
+        assertEquals("", validate(RecordValidationUtilService.EMAIL, "not an email"));
+    }
+
+    @Test
+    void phoneKeepsDigits() {
+        assertEquals("15551234567", validate(RecordValidationUtilService.PHONE, "+1 (555) 123-4567"));
+        assertEquals("12345", validate(RecordValidationUtilService.PHONE, "12345"));
+        assertEquals("", validate(RecordValidationUtilService.PHONE, "12-34"));
+        assertEquals("", validate(RecordValidationUtilService.PHONE, ""));
+    }
+
+    @Test
+    void dateIsNormalizedToIso() {
+        assertEquals("2024-02-29", validate(RecordValidationUtilService.DATE, "2024-02-29"));
+        assertEquals("2024-02-29", validate(RecordValidationUtilService.DATE, "2024/02/29"));
+        assertEquals("2024-02-29", validate(RecordValidationUtilService.DATE, "29.02.2024"));
+        assertEquals("2024-02-29", validate(RecordValidationUtilService.DATE, "02/29/2024"));
+        assertEquals("2024-02-29", validate(RecordValidationUtilService.DATE, "20240229"));
+        assertEquals("", validate(RecordValidationUtilService.DATE, "2023-02-29"));
+        assertEquals("", validate(RecordValidationUtilService.DATE, "yesterday"));
+        assertEquals("", validate(RecordValidationUtilService.DATE, ""));
+    }
+
+    @Test
+    void numericDropsGroupSeparators() {
+        assertEquals("1000", validate(RecordValidationUtilService.NUMERIC, "1 000"));
+        assertEquals("1000000.25", validate(RecordValidationUtilService.NUMERIC, "1'000'000,25"));
+        assertEquals("-12.5", validate(RecordValidationUtilService.NUMERIC, "-12.5"));
+        assertEquals("+7", validate(RecordValidationUtilService.NUMERIC, "+7"));
+        assertEquals("", validate(RecordValidationUtilService.NUMERIC, "1.2.3"));
+        assertEquals("", validate(RecordValidationUtilService.NUMERIC, "12a"));
+        assertEquals("", validate(RecordValidationUtilService.NUMERIC, "-"));
+        assertEquals("", validate(RecordValidationUtilService.NUMERIC, ".5"));
+    }
+
+    @Test
+    void postal() {
+        assertEquals("10115", validate(RecordValidationUtilService.POSTAL, "10115"));
+        assertEquals("SW1A 1AA", validate(RecordValidationUtilService.POSTAL, "SW1A 1AA"));
+        assertEquals("", validate(RecordValidationUtilService.POSTAL, "1"));
+        assertEquals("", validate(RecordValidationUtilService.POSTAL, "-1234"));
+    }
+
+    @Test
+    void columnNamePicksValidatorWhenNoneIsSelected() {
+        assertSame(service.validatorFor(RecordValidationUtilService.EMAIL, null), service.validatorFor(null, "Contact E-Mail"));
+        assertSame(service.validatorFor(RecordValidationUtilService.PHONE, null), service.validatorFor(null, "PhoneNumber"));
+        assertSame(service.validatorFor(RecordValidationUtilService.NONE, null), service.validatorFor(null, "Name"));
+        assertEquals("anything", service.validatorFor(null, "Name").validate("anything"));
+    }
+
+    @Test
+    void unknownValidatorsAreRejected() {
+        assertThrows(ResponseStatusException.class, () -> service.validatorFor("iban", "Account"));
+        assertThrows(ResponseStatusException.class, () -> service.checkValidators(List.of(mapping("iban"))));
+        assertDoesNotThrow(() -> service.checkValidators(List.of(mapping(null), mapping(RecordValidationUtilService.DATE))));
+    }
+
+    @Test
+    void registeredValidatorsAreSelectable() {
+        service.register("Upper", value -> value.toUpperCase());
+        assertEquals("ABC", validate("upper", "abc"));
+        assertDoesNotThrow(() -> service.checkValidators(List.of(mapping("upper"))));
+    }
+
+    private final String validate(final String validator, final String value){
+        return service.validatorFor(validator, "column").validate(value);
+    }
+
+    private static final UploadMapping mapping(final String validator){
+        return new UploadMapping(List.of("source"), "destination", List.of(), validator, false, false);
+    }
+}
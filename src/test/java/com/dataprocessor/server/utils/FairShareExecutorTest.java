@@ -0,0 +1,131 @@
+package com.dataprocessor.server.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Queued tasks start in order of their shares' virtual start times, and a share with too many pending tasks blocks its producer.
+class FairShareExecutorTest {
+    private static final BlockingExecutor.ExceptionHandler RETHROW = cause -> {throw new AssertionError(cause);};
+
+    @Test
+    void heavierShareStartsMoreTasks() throws InterruptedException {
+        final FairShareExecutor executor = new FairShareExecutor(1);
+        final FairShareExecutor.Share light = executor.register("light", 1, 100, RETHROW);
+        final FairShareExecutor.Share heavy = executor.register("heavy", 3, 100, RETHROW);
+        final List<String> started = Collections.synchronizedList(new ArrayList<>());
+
+        final CountDownLatch gate = new CountDownLatch(1);
+        light.execute(() -> await(gate), 1);
+        for (int i = 0; i < 4; i++) {
+            light.execute(() -> started.add("L"), 1);
+            heavy.execute(() -> started.add("H"), 1);
+        }
+        gate.countDown();
+        light.awaitIdle();
+        heavy.awaitIdle();
+
+        //The gate moved the light share's start to 1, the heavy one advances 1/3 per task, ties go to the first registered
+        assertEquals(List.of("H", "H", "H", "L", "H", "L", "L", "L"), started);
+    }
+
+    @Test
+    void costIsChargedToTheShare() throws InterruptedException {
+        final FairShareExecutor executor = new FairShareExecutor(1);
+        final FairShareExecutor.Share large = executor.register("large", 1, 100, RETHROW);
+        final FairShareExecutor.Share small = executor.register("small", 1, 100, RETHROW);
+        final List<String> started = Collections.synchronizedList(new ArrayList<>());
+
+        final CountDownLatch gate = new CountDownLatch(1);
+        small.execute(() -> await(gate), 1);
+        large.execute(() -> started.add("large"), 4);
+        large.execute(() -> started.add("large"), 4);
+        for (int i = 0; i < 4; i++) {
+            small.execute(() -> started.add("small"), 1);
+        }
+        gate.countDown();
+        large.awaitIdle();
+        small.awaitIdle();
+
+        //A large task moves its share's start 4 ahead, so the small share runs three tasks before the tie at 4
+        assertEquals(List.of("large", "small", "small", "small", "large", "small"), started);
+    }
+
+    @Test
+    void producerBlocksAtMaxPending() throws InterruptedException {
+        final FairShareExecutor executor = new FairShareExecutor(1);
+        final FairShareExecutor.Share share = executor.register("share", 1, 2, RETHROW);
+        final CountDownLatch gate = new CountDownLatch(1);
+        share.execute(() -> await(gate), 1);
+        share.execute(() -> await(gate), 1);
+
+        final AtomicBoolean submitted = new AtomicBoolean();
+        final Thread producer = Thread.startVirtualThread(() -> {
+            share.execute(() -> {}, 1);
+            submitted.set(true);
+        });
+        producer.join(300);
+        assertFalse(submitted.get(), "Third task was accepted while two were pending");
+
+        gate.countDown();
+        producer.join(TimeUnit.SECONDS.toMillis(5));
+        assertTrue(submitted.get(), "Producer was not released after the pending tasks finished");
+        share.awaitIdle();
+    }
+
+    @Test
+    void failedTaskIsHandledAndFreesItsSlot() throws InterruptedException {
+        final FairShareExecutor executor = new FairShareExecutor(1);
+        final AtomicReference<Throwable> handled = new AtomicReference<>();
+        final FairShareExecutor.Share share = executor.register("share", 1, 1, handled::set);
+        final IllegalStateException failure = new IllegalStateException("failed");
+        share.execute(() -> {throw failure;}, 1);
+        final AtomicBoolean ran = new AtomicBoolean();
+        share.execute(() -> ran.set(true), 1);
+        share.awaitIdle();
+
+        assertSame(failure, handled.get());
+        assertTrue(ran.get());
+    }
+
+    @Test
+    void closeDropsQueuedTasks() throws InterruptedException {
+        final FairShareExecutor executor = new FairShareExecutor(1);
+        final FairShareExecutor.Share share = executor.register("share", 1, 10, RETHROW);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AtomicBoolean ran = new AtomicBoolean();
+        share.execute(() -> await(gate), 1);
+        share.execute(() -> ran.set(true), 1);
+
+        final Thread closer = Thread.startVirtualThread(share::close);
+        closer.join(300);
+        assertTrue(closer.isAlive(), "Close returned before the running task finished");
+        gate.countDown();
+        closer.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(closer.isAlive());
+        assertFalse(ran.get());
+
+        //A closed share accepts nothing
+        share.execute(() -> ran.set(true), 1);
+        assertFalse(ran.get());
+    }
+
+    private static final void await(final CountDownLatch latch){
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (final InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
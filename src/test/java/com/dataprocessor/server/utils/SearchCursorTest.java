@@ -0,0 +1,53 @@
+package com.dataprocessor.server.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+//A cursor gives back the row it was made from, and only to the search it was made for.
+class SearchCursorTest {
+    private static final String SIGNATURE = "3f2a9c";
+
+    @Test
+    void roundTrip() {
+        final String rowId = "c1e8f7a0b9d24e6f8a1b2c3d4e5f6071";
+        assertEquals(rowId, SearchCursor.decode(SIGNATURE, SearchCursor.encode(SIGNATURE, rowId)));
+        //Row ids are compared as strings, so any text must come back unchanged
+        assertEquals("a\nb/ü+=", SearchCursor.decode(SIGNATURE, SearchCursor.encode(SIGNATURE, "a\nb/ü+=")));
+        assertEquals("", SearchCursor.decode(SIGNATURE, SearchCursor.encode(SIGNATURE, "")));
+    }
+
+    @Test
+    void tokenIsUrlSafe() {
+        final String token = SearchCursor.encode(SIGNATURE, "ÿþý?>");
+        assertFalse(token.contains("+") || token.contains("/") || token.contains("="), token);
+    }
+
+    @Test
+    void missingAndBlankTokens() {
+        assertNull(SearchCursor.decode(SIGNATURE, null));
+        assertEquals("", SearchCursor.decode(SIGNATURE, ""));
+        assertEquals("", SearchCursor.decode(SIGNATURE, "  "));
+    }
+
+    @Test
+    void tokenOfAnotherSearchIsRejected() {
+        final String token = SearchCursor.encode("other", "row");
+        final ResponseStatusException rejected = assertThrows(ResponseStatusException.class, () -> SearchCursor.decode(SIGNATURE, token));
+        assertEquals(HttpStatus.BAD_REQUEST, rejected.getStatusCode());
+        //A signature that only starts like this one is still another search
+        assertThrows(ResponseStatusException.class, () -> SearchCursor.decode(SIGNATURE, SearchCursor.encode(SIGNATURE + "0", "row")));
+    }
+
+    @Test
+    void malformedTokensAreRejected() {
+        assertEquals(HttpStatus.BAD_REQUEST, assertThrows(ResponseStatusException.class, () -> SearchCursor.decode(SIGNATURE, "not base64!")).getStatusCode());
+        //Valid base64 without a separator
+        assertThrows(ResponseStatusException.class, () -> SearchCursor.decode(SIGNATURE, "YWJj"));
+    }
+}
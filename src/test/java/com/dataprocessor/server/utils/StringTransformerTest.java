@@ -0,0 +1,135 @@
+package com.dataprocessor.server.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.StringTokenizer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+//The fused scan must give what applying the transformations one after the other did, for every list of them.
+class StringTransformerTest {
+    private static final List<String> INPUTS = List.of(
+            "",
+            "   ",
+            "Hello World",
+            "  Hello \t  World  \r\n",
+            "'quoted'  \"Double\"  ' \" '  x",
+            "a  ' b '  \"\"  c",
+            "ß Straße",
+            "İstanbul ıI",
+            "ΟΔΟΣ ΑΣ'Β \"ΣΑΣ\"",
+            "ﬁne ǅ ǆ Ǆ",
+            " nbsp   em ",
+            "\u0001control\u0001 x",
+            "MiXeD 123 ÀÉÎõü");
+
+    @Test
+    void everyTransformationListMatchesTheChain() {
+        final List<List<StringTransformer.Transformation>> lists = transformationLists(4);
+        final List<String> inputs = new ArrayList<>(INPUTS);
+        final Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            inputs.add(randomString(random));
+        }
+        for(final List<StringTransformer.Transformation> transformations : lists){
+            final StringTransformer.Compiled compiled = StringTransformer.compile(transformations);
+            for(final String input : inputs){
+                final String expected = chain(input, transformations);
+                assertEquals(expected, StringTransformer.transform(input, transformations), transformations + " of '" + input + "'");
+                assertEquals(expected, compiled.apply(input), transformations + " of '" + input + "'");
+                assertEquals(expected, compiled.apply((CharSequence) input).toString(), transformations + " of '" + input + "'");
+            }
+        }
+    }
+
+    @Test
+    void caseChangesApplyInOrder() {
+        final List<StringTransformer.Transformation> upperThenLower = List.of(StringTransformer.Transformation.TUC, StringTransformer.Transformation.TLC);
+        assertEquals("ss", StringTransformer.transform("ß", upperThenLower));
+        assertEquals("ß", StringTransformer.transform("ß", List.of(StringTransformer.Transformation.TLC)));
+    }
+
+    @Test
+    void localeSpecificCaseMatchesTheChain() {
+        final Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.forLanguageTag("tr"));
+            for(final List<StringTransformer.Transformation> transformations : transformationLists(2)){
+                for(final String input : INPUTS){
+                    assertEquals(chain(input, transformations), StringTransformer.transform(input, transformations), transformations + " of '" + input + "'");
+                }
+            }
+        }finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    void unchangedInputIsReturnedAsIs() {
+        final String input = "already lower";
+        assertSame(input, StringTransformer.transform(input, List.of(StringTransformer.Transformation.TLC, StringTransformer.Transformation.NRM)));
+        assertEquals("", StringTransformer.transform(null, List.of(StringTransformer.Transformation.TRIM)));
+    }
+
+    private static final List<List<StringTransformer.Transformation>> transformationLists(final int maxLength){
+        final List<List<StringTransformer.Transformation>> res = new ArrayList<>();
+        res.add(List.of());
+        for (int i = 0; i < res.size(); i++) {
+            if (res.get(i).size() == maxLength)
+                continue;
+            for(final StringTransformer.Transformation transformation : StringTransformer.Transformation.values()){
+                final List<StringTransformer.Transformation> list = new ArrayList<>(res.get(i));
+                list.add(transformation);
+                res.add(list);
+            }
+        }
+        return res;
+    }
+
+    private static final String randomString(final Random random){
+        final String alphabet = " \t\n'\"aAzZßİıΣσ  ǅﬁ\u0001é";
+        final StringBuilder sb = new StringBuilder();
+        final int length = random.nextInt(12);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    //The transformations as they were applied before they were fused
+    private static final String chain(final String src, final List<StringTransformer.Transformation> transformations){
+        String result = src == null ? "" : src;
+        for (final StringTransformer.Transformation transformation : transformations) {
+            switch (transformation) {
+                case TLC -> result = result.toLowerCase();
+                case TUC -> result = result.toUpperCase();
+                case TRIM -> result = result.trim();
+                case NRM -> result = normalize(result);
+            }
+        }
+        return result;
+    }
+
+    private static final String normalize(final String str){
+        final StringTokenizer tokenizer = new StringTokenizer(str);
+        final StringBuilder sb = new StringBuilder(str.length());
+        while (tokenizer.hasMoreTokens()) {
+            String token = tokenizer.nextToken().trim();
+            while (token.startsWith("'") || token.startsWith("\"")){
+                token = token.substring(1).trim();
+            }
+            while (token.endsWith("'") || token.endsWith("\"")){
+                token = token.substring(0, token.length() - 1).trim();
+            }
+            if (!token.isBlank()){
+                sb.append(token).append(' ');
+            }
+        }
+        return sb.toString().trim();
+    }
+}
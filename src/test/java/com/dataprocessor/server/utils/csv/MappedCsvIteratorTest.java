@@ -0,0 +1,111 @@
+package com.dataprocessor.server.utils.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+//The mapped tokenizer replaces commons-csv for the formats it supports, so both must read every file the same way.
+class MappedCsvIteratorTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void quotedFieldsMatchCommonsCsv() throws IOException {
+        assertSameRecords("a,\"b,c\",\"d\"\"e\"\n\"\",x,\"multi\nline\"\nab\"c,\"\"\"\",\"é\"\n", CSVFormat.DEFAULT);
+    }
+
+    @Test
+    void whitespaceAfterClosingQuoteIsDropped() throws IOException {
+        assertSameRecords("\"a\" ,\"b\"\t\n\"c\"  \r\nd,e\n", CSVFormat.DEFAULT);
+    }
+
+    @Test
+    void lineSeparatorsMatchCommonsCsv() throws IOException {
+        assertSameRecords("a,b\r\nc,d\r\n\"e\r\nf\",g\r\nh\ri\nj,k", CSVFormat.DEFAULT);
+        assertSameRecords("a,b,\r\n,\r\n\"\"\r\n", CSVFormat.RFC4180);
+    }
+
+    @Test
+    void emptyLinesMatchCommonsCsv() throws IOException {
+        final String content = "a,b\n\n\r\n\nc,d\n\"\"\n\n";
+        assertSameRecords(content, CSVFormat.DEFAULT);
+        assertSameRecords(content, CSVFormat.RFC4180);
+    }
+
+    @Test
+    void windowBoundariesMatchCommonsCsv() throws IOException {
+        final String content = "id,name,note\r\n1,\"a\"\"b\",x\r\n2,\"c\r\nd\",\r\n\r\n3,e,\"\"\"\"\n4,,\"f,g\"\r\n";
+        final List<List<String>> expected = parseWithCommonsCsv(content, CSVFormat.DEFAULT);
+        //Every record plus the byte after it fits, so each window size moves the boundaries without any record failing
+        for (int windowBytes = 16; windowBytes <= content.length() + 1; windowBytes++) {
+            assertEquals(expected, parseMapped(content, CSVFormat.DEFAULT, windowBytes), "Window of " + windowBytes + " bytes");
+        }
+    }
+
+    @Test
+    void charactersAfterClosingQuoteFailLikeCommonsCsv() throws IOException {
+        final String content = "a,b\n\"c\"d,e\n";
+        assertThrows(RuntimeException.class, () -> parseWithCommonsCsv(content, CSVFormat.DEFAULT));
+        assertThrows(RuntimeException.class, () -> parseMapped(content, CSVFormat.DEFAULT, Long.MAX_VALUE));
+    }
+
+    @Test
+    void unterminatedQuoteFailsLikeCommonsCsv() throws IOException {
+        final String content = "a,b\nc,\"d\n";
+        assertThrows(RuntimeException.class, () -> parseWithCommonsCsv(content, CSVFormat.DEFAULT));
+        assertThrows(RuntimeException.class, () -> parseMapped(content, CSVFormat.DEFAULT, Long.MAX_VALUE));
+    }
+
+    private final void assertSameRecords(final String content, final CSVFormat format) throws IOException {
+        assertEquals(parseWithCommonsCsv(content, format), parseMapped(content, format, Long.MAX_VALUE));
+    }
+
+    private static final List<List<String>> parseWithCommonsCsv(final String content, final CSVFormat format) throws IOException {
+        final List<List<String>> res = new ArrayList<>();
+        try (final CSVParser parser = new CSVParser(new StringReader(content), format)) {
+            for(final CSVRecord record : parser){
+                res.add(record.toList());
+            }
+        }
+        return res;
+    }
+
+    private final List<List<String>> parseMapped(final String content, final CSVFormat format, final long windowBytes) throws IOException {
+        final File file = Files.writeString(Files.createTempFile(directory, "mapped", ".csv"), content, StandardCharsets.UTF_8).toFile();
+        final List<List<String>> res = new ArrayList<>();
+        try (final MappedCsvIterator iterator = new MappedCsvIterator(file,
+                format.getDelimiterString().charAt(0),
+                format.getQuoteCharacter(),
+                format.getIgnoreEmptyLines(),
+                false,
+                null,
+                -1,
+                true,
+                ()->{},
+                windowBytes)) {
+            while (iterator.hasNext()){
+                final CsvUtil.CsvRecord record = iterator.next();
+                final List<String> values = new ArrayList<>();
+                for (String value = record.getColumnVale(0); value != null; value = record.getColumnVale(values.size())) {
+                    values.add(value);
+                }
+                res.add(values);
+            }
+        }
+        return res;
+    }
+}